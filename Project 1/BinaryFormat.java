@@ -0,0 +1,113 @@
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+// compact binary frame, decoded straight out of the receive buffer without building any intermediate strings
+// FRAME FORMAT: <length:int32> <type:byte> <sender:varint> <sequence:varint> <clockHeader:varint> <clock:varint...>
+//               <payloadLength:varint> <payload:bytes>
+// the length covers everything after the prefix so a reader can tell when a whole frame has arrived
+// the clock header is the entry count shifted left by one, with the low bit set when the clock is compressed, in
+// which case the entries are index/value pairs that the receiver applies to the sender's previous clock
+class BinaryFormat implements WireFormat {
+    private static final int LENGTH_PREFIX = 4;
+    private static final int MAX_VARINT = 5;
+    private static final int MAX_FRAME = 16 * 1024 * 1024;
+
+    @Override
+    public void encode(Message message, ByteBuffer out) {
+        if (out.remaining() < maxFrameSize(message)) {
+            throw new BufferOverflowException();
+        }
+        int start = out.position();
+        out.position(start + LENGTH_PREFIX); // leave room for the length, it is filled in once the body is written
+
+        out.put(message.type);
+        putVarint(out, message.sender);
+        putVarint(out, message.sequence);
+        if (message.clockDelta != null) {
+            putVarint(out, (message.clockDelta.length / 2) << 1 | 1);
+            for (int entry : message.clockDelta) {
+                putVarint(out, entry);
+            }
+        } else {
+            putVarint(out, message.vectorClock.length << 1);
+            for (int entry : message.vectorClock) {
+                putVarint(out, entry);
+            }
+        }
+        int payloadLength = message.payload == null ? 0 : message.payload.length;
+        putVarint(out, payloadLength);
+        if (payloadLength > 0) {
+            out.put(message.payload);
+        }
+
+        out.putInt(start, out.position() - start - LENGTH_PREFIX);
+    }
+
+    @Override
+    public Message decode(ByteBuffer in) {
+        if (in.remaining() < LENGTH_PREFIX) {
+            return null;
+        }
+        int start = in.position();
+        int length = in.getInt(start);
+        if (length < 0 || length > MAX_FRAME) {
+            throw new IllegalStateException("Corrupt frame, length " + length + " at offset " + start);
+        }
+        if (in.remaining() < LENGTH_PREFIX + length) {
+            return null; // the rest of the frame has not arrived yet
+        }
+        in.position(start + LENGTH_PREFIX);
+
+        byte type = in.get();
+        int sender = getVarint(in);
+        int sequence = getVarint(in);
+        int clockHeader = getVarint(in);
+        int[] clock = new int[(clockHeader & 1) == 1 ? (clockHeader >>> 1) * 2 : clockHeader >>> 1];
+        for (int i = 0; i < clock.length; i++) {
+            clock[i] = getVarint(in);
+        }
+        int payloadLength = getVarint(in);
+        byte[] payload = null;
+        if (payloadLength > 0) {
+            payload = new byte[payloadLength];
+            in.get(payload);
+        }
+
+        in.position(start + LENGTH_PREFIX + length);
+        if ((clockHeader & 1) == 1) {
+            // the full clock is rebuilt by the receiver once it knows the sender's previous clock
+            Message message = new Message(type, sender, sequence, null, payload);
+            message.clockDelta = clock;
+            return message;
+        }
+        return new Message(type, sender, sequence, clock, payload);
+    }
+
+    @Override
+    public int maxFrameSize(Message message) {
+        int payloadLength = message.payload == null ? 0 : message.payload.length;
+        int clockLength = message.clockDelta != null ? message.clockDelta.length : message.vectorClock.length;
+        return LENGTH_PREFIX + 1 + MAX_VARINT * (4 + clockLength) + payloadLength;
+    }
+
+    // writes the value 7 bits at a time, low bits first, with the top bit of each byte marking a continuation
+    static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.*;
+
+// causal delivery engine: a message that arrives early waits in the queue of its sender, ordered by the sender's own
+// clock entry. only the head of each queue can be next, so only heads are checked: a blocked head waits on the first
+// entry it still needs, and when that entry moves it resumes checking from there. clock entries only ever grow, so
+// a head never checks an entry twice once it is satisfied and a message costs O(N) to deliver no matter how deep the
+// backlog is. a message that arrives in order with nothing from its sender buffered is delivered without being queued
+class CausalDelivery {
+    // receives each message once it is causally ready, in delivery order
+    interface Deliverer {
+        void deliver(Message message);
+    }
+
+    private final int[] vectorClock; // number of messages delivered from each sender
+    private final Deliverer deliverer;
+    private final List<PriorityQueue<Message>> pending = new ArrayList<>();
+    private final int[] cursor; // entries below this are known to be satisfied for the sender's head
+    private final int[] waitingOn; // the entry the sender's head is waiting on, -1 if it is not waiting
+    private final int[][] waiters; // senders whose head is waiting on each entry
+    private final int[] waiterCount;
+    private final Deque<Integer> ready = new ArrayDeque<>(); // senders whose head is deliverable
+    private int buffered = 0;
+    private final int[] bufferedFrom; // buffered messages by the link they arrived on
+
+    public CausalDelivery(int[] vectorClock, Deliverer deliverer) {
+        int n = vectorClock.length;
+        this.vectorClock = vectorClock;
+        this.deliverer = deliverer;
+        this.cursor = new int[n];
+        this.waitingOn = new int[n];
+        this.waiters = new int[n][4];
+        this.waiterCount = new int[n];
+        this.bufferedFrom = new int[n];
+        for (int i = 0; i < n; i++) {
+            int sender = i;
+            pending.add(new PriorityQueue<>(Comparator.comparingInt((Message m) -> m.vectorClock[sender])));
+            waitingOn[i] = -1;
+        }
+    }
+
+    // buffers a received message, then delivers it and everything it unblocks until nothing more is deliverable
+    public void receive(Message message) {
+        int sender = message.sender;
+        if (message.vectorClock[sender] <= vectorClock[sender]) {
+            return; // already delivered, a duplicate
+        }
+
+        PriorityQueue<Message> queue = pending.get(sender);
+        if (queue.isEmpty() && isReadyForDelivery(message, vectorClock)) {
+            deliver(sender, message); // nothing is missing, the usual case, so it skips the queue
+        } else {
+            queue.add(message);
+            buffered++;
+            bufferedFrom[message.link]++;
+            if (queue.peek() != message) {
+                return; // an earlier message from the same sender is still missing, so this one cannot be next
+            }
+            newHead(sender);
+        }
+
+        while (!ready.isEmpty()) {
+            int next = ready.poll();
+            Message head = pending.get(next).poll();
+            buffered--;
+            bufferedFrom[head.link]--;
+            deliver(next, head);
+        }
+    }
+
+    // number of messages received but not yet delivered
+    public int buffered() {
+        return buffered;
+    }
+
+    // number of messages that came in on the link and are not yet delivered, from whichever sender
+    public int buffered(int link) {
+        return bufferedFrom[link];
+    }
+
+    // delivers the sender's next message and rechecks the heads waiting on the sender's entry
+    private void deliver(int sender, Message message) {
+        vectorClock[sender] = message.vectorClock[sender];
+        deliverer.deliver(message);
+
+        // only the heads waiting on this entry can have been unblocked, the rest are left alone
+        int[] waiting = waiters[sender];
+        for (int i = 0; i < waiterCount[sender]; ) {
+            int waiter = waiting[i];
+            if (vectorClock[sender] >= needed(pending.get(waiter).peek(), waiter, sender)) {
+                waiting[i] = waiting[--waiterCount[sender]];
+                waitingOn[waiter] = -1;
+                resume(waiter);
+            } else {
+                i++;
+            }
+        }
+        newHead(sender);
+    }
+
+    // starts checking the sender's head from scratch, after it was delivered or overtaken by an earlier message
+    private void newHead(int sender) {
+        if (waitingOn[sender] >= 0) {
+            int[] waiting = waiters[waitingOn[sender]];
+            for (int i = 0; i < waiterCount[waitingOn[sender]]; i++) {
+                if (waiting[i] == sender) {
+                    waiting[i] = waiting[--waiterCount[waitingOn[sender]]];
+                    break;
+                }
+            }
+            waitingOn[sender] = -1;
+        }
+
+        PriorityQueue<Message> queue = pending.get(sender);
+        while (!queue.isEmpty() && queue.peek().vectorClock[sender] <= vectorClock[sender]) {
+            bufferedFrom[queue.poll().link]--; // a duplicate that arrived while the original was still buffered
+            buffered--;
+        }
+        if (!queue.isEmpty()) {
+            cursor[sender] = 0;
+            resume(sender);
+        }
+    }
+
+    // carries on checking the sender's head from its cursor, and either waits on the next entry it needs or marks it ready
+    private void resume(int sender) {
+        Message head = pending.get(sender).peek();
+        for (int k = cursor[sender]; k < vectorClock.length; k++) {
+            if (vectorClock[k] < needed(head, sender, k)) {
+                cursor[sender] = k;
+                waitingOn[sender] = k;
+                if (waiterCount[k] == waiters[k].length) {
+                    waiters[k] = Arrays.copyOf(waiters[k], waiters[k].length * 2);
+                }
+                waiters[k][waiterCount[k]++] = sender;
+                return;
+            }
+        }
+        cursor[sender] = vectorClock.length;
+        ready.add(sender);
+    }
+
+    // the value entry k has to reach before the head can be delivered, its own sender's entry has to be one behind
+    private static int needed(Message head, int sender, int k) {
+        return k == sender ? head.vectorClock[k] - 1 : head.vectorClock[k];
+    }
+
+    // a message is deliverable when it is the next one from its sender and everything it depends on has been delivered
+    public static boolean isReadyForDelivery(Message message, int[] vectorClock) {
+        int senderIndex = message.sender;
+        int[] receivedTimestamp = message.vectorClock;
+        if (vectorClock[senderIndex] + 1 != receivedTimestamp[senderIndex]) {
+            return false;
+        }
+        for (int i = 0; i < vectorClock.length; i++) {
+            if (i != senderIndex && vectorClock[i] < receivedTimestamp[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
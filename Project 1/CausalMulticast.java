@@ -0,0 +1,174 @@
+import java.util.*;
+
+// causal multicast to named groups with a matrix clock, in the style of Raynal-Schiper-Toueg. sent[k][l] is the
+// number of messages from k to l this process knows were sent, and a multicast carries the sender's matrix after
+// counting itself. the receiver only needs its own column of it: column[k] is how many messages from k to it come
+// before this one, so the column takes the place of the vector clock and the delivery engine runs unchanged on it,
+// with the sender's own entry one ahead. the rest of the matrix is merged in once the message is delivered, so that
+// what the message depended on is passed on to whatever is sent after it
+//
+// with compressed clocks only the matrix entries that changed since the last message to a member go on the wire,
+// which are the entries of the groups the sender has been talking to, so a multicast costs in proportion to the
+// group rather than the cluster. a full clock is the whole n x n matrix. like the vector clocks, the first message to
+// a member carries the whole matrix, and so does the first one after the member restarted
+//
+// GROUPS OPTION: --groups=<name>:<index>,<index>...[;<name>:...] names the groups and their members by process
+// index, and every process has to be given the same groups
+class CausalMulticast {
+    private final int numHosts;
+    private final int localIndex;
+    private final Map<String, int[]> groups;
+    private final int[] sent; // sent[k * numHosts + l]
+    private final ClockCompression compression; // over the matrix entries
+    private final int[][] lastReceived; // each sender's matrix as of its last message, only once it has sent one here
+
+    private CausalMulticast(int numHosts, int localIndex, Map<String, int[]> groups) {
+        this.numHosts = numHosts;
+        this.localIndex = localIndex;
+        this.groups = groups;
+        this.sent = new int[numHosts * numHosts];
+        this.compression = new ClockCompression(numHosts, numHosts * numHosts);
+        this.lastReceived = new int[numHosts][];
+    }
+
+    // the groups given by --groups, null without it
+    static CausalMulticast forOptions(Map<String, String> options, int localIndex, int numHosts) {
+        String spec = options.get("groups");
+        if (spec == null) {
+            return null;
+        }
+        Map<String, int[]> groups = new TreeMap<>();
+        for (String group : spec.split(";")) {
+            String[] parts = group.split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid group: " + group + ", must be <name>:<index>,<index>...");
+            }
+            int[] members = Arrays.stream(parts[1].split(",")).mapToInt(Integer::parseInt).distinct().toArray();
+            for (int member : members) {
+                if (member < 0 || member >= numHosts) {
+                    throw new IllegalArgumentException("Group " + parts[0] + " has process " + member + ", which is not in the cluster");
+                }
+            }
+            groups.put(parts[0], members);
+        }
+        return new CausalMulticast(numHosts, localIndex, groups);
+    }
+
+    public int[] members(String group) {
+        return groups.get(group);
+    }
+
+    // the groups the process is a member of, in order of name
+    public List<String> groupsOf(int processIndex) {
+        List<String> names = new ArrayList<>();
+        for (Map.Entry<String, int[]> group : groups.entrySet()) {
+            for (int member : group.getValue()) {
+                if (member == processIndex) {
+                    names.add(group.getKey());
+                    break;
+                }
+            }
+        }
+        return names;
+    }
+
+    // counts a multicast to the group's members, returns the matrix to send with it, which is only valid until the
+    // matrix next changes
+    public int[] send(String group) {
+        for (int member : groups.get(group)) {
+            if (member != localIndex) {
+                int k = localIndex * numHosts + member;
+                compression.update(k, ++sent[k]);
+            }
+        }
+        return sent;
+    }
+
+    // matrix entries that changed since the last message to the member, as index/value pairs, or null when the
+    // message has to carry the whole matrix
+    public int[] delta(int member) {
+        return compression.delta(member);
+    }
+
+    // the member restarted and lost the matrix the changes would apply to, the next multicast to it carries it whole
+    public void restart(int member) {
+        compression.restart(member);
+    }
+
+    // brings the sender's matrix up to date with what the message carried, and leaves the message with the changed
+    // entries to merge on delivery and the local column as its vector clock. returns false for changes that came
+    // before a whole matrix from the sender, those were made for a run of this process before it restarted. each
+    // sender's messages arrive in order and are never handled concurrently, so this needs no lock
+    public boolean receive(Message message) {
+        int sender = message.sender;
+        if (lastReceived[sender] == null) {
+            if (message.clockDelta != null) {
+                return false;
+            }
+            lastReceived[sender] = new int[numHosts * numHosts];
+        }
+        int[] matrix = lastReceived[sender];
+        int[] changed = message.clockDelta;
+        if (changed == null) {
+            // a full matrix, only the entries that moved need merging
+            int count = 0;
+            for (int k = 0; k < matrix.length; k++) {
+                if (message.vectorClock[k] != matrix[k]) {
+                    count++;
+                }
+            }
+            changed = new int[count * 2];
+            int i = 0;
+            for (int k = 0; k < matrix.length; k++) {
+                if (message.vectorClock[k] != matrix[k]) {
+                    changed[i++] = k;
+                    changed[i++] = message.vectorClock[k];
+                }
+            }
+        }
+        for (int i = 0; i < changed.length; i += 2) {
+            matrix[changed[i]] = changed[i + 1];
+        }
+
+        int[] column = new int[numHosts];
+        for (int k = 0; k < numHosts; k++) {
+            column[k] = matrix[k * numHosts + localIndex];
+        }
+        message.clockDelta = changed;
+        message.vectorClock = column;
+        return true;
+    }
+
+    // merges the matrix of a delivered message, called with the node's lock held. the sender's earlier messages
+    // were all delivered first, so merging the entries this one changed is the same as merging its whole matrix
+    public void deliver(Message message) {
+        int[] changed = message.clockDelta;
+        for (int i = 0; i < changed.length; i += 2) {
+            int k = changed[i];
+            if (changed[i + 1] > sent[k]) {
+                sent[k] = changed[i + 1];
+                compression.update(k, sent[k]);
+            }
+        }
+    }
+
+    // messages each process sends to this one when every process sends count messages, each to the next of its
+    // groups in turn
+    public int expected(int count) {
+        int expected = 0;
+        for (int j = 0; j < numHosts; j++) {
+            List<String> own = groupsOf(j);
+            if (j == localIndex || own.isEmpty()) {
+                continue;
+            }
+            for (int sequence = 1; sequence <= count; sequence++) {
+                for (int member : groups.get(own.get((sequence - 1) % own.size()))) {
+                    if (member == localIndex) {
+                        expected++;
+                    }
+                }
+            }
+        }
+        return expected;
+    }
+}
@@ -0,0 +1,166 @@
+import java.util.*;
+
+// causal stability: a message is stable once every process has delivered it, after that no process can still need
+// it and it can be forgotten. every message carries its sender's vector clock, and entry k of that clock is the
+// number of messages from k the sender had delivered when it sent it, so each received clock is an acknowledgement
+// vector from its sender. the highest one seen from each process is kept, and the messages from k that are stable
+// everywhere are the smallest entry k over all of them. a process that delivers ack-every messages from one sender
+// without sending anything in between sends an explicit ack, so its acknowledgements do not wait for its next
+// broadcast. counting per sender rather than in total keeps a process that broadcasts as often as the others from
+// acking at all, however large the cluster
+//
+// BUFFER OPTIONS: --buffer-cap=N is how many sent messages may be waiting to become stable, 4096 by default.
+// --buffer-overflow=block|drop is what a broadcast does when that many are waiting: wait until the oldest one becomes
+// stable, or forget the oldest one and count it as an overflow, block by default. --ack-every=N is how many
+// messages from one sender a process delivers before it acks them without a broadcast to carry them, 32 by default.
+// with block, no sender gets more than the cap ahead of the slowest delivery of its messages, so the delivery engine
+// of any process holds at most the cap from each sender too and the heap stays flat however long the node runs
+//
+// when processes pull missed messages from each other they also keep the messages they delivered from others until
+// those are stable, up to the cap from each sender with the oldest forgotten first, so they can hand them out
+class CausalStability {
+    private final int localIndex;
+    private final int[] vectorClock; // the local row, a process has always delivered what it has delivered
+    private final int[][] acknowledged; // acknowledged[j][k]: messages from k that process j is known to have delivered
+    private final ArrayDeque<Message> unstable = new ArrayDeque<>(); // sent by this process and not yet stable
+    private final List<ArrayDeque<Message>> retained = new ArrayList<>(); // delivered from each other process
+    private final int capacity;
+    private final boolean block;
+    private final int ackEvery;
+    private int overflows = 0;
+
+    private CausalStability(int localIndex, int[] vectorClock, int capacity, boolean block, int ackEvery) {
+        this.localIndex = localIndex;
+        this.vectorClock = vectorClock;
+        this.acknowledged = new int[vectorClock.length][vectorClock.length];
+        this.capacity = capacity;
+        this.block = block;
+        this.ackEvery = ackEvery;
+        for (int k = 0; k < vectorClock.length; k++) {
+            retained.add(new ArrayDeque<>());
+        }
+    }
+
+    static CausalStability forOptions(Map<String, String> options, int localIndex, int[] vectorClock) {
+        int capacity = Integer.parseInt(options.getOrDefault("buffer-cap", "4096"));
+        int ackEvery = Integer.parseInt(options.getOrDefault("ack-every", "32"));
+        if (ackEvery > capacity) {
+            // a blocked sender waits for acks, which would never come if receivers only ack after more than the cap
+            System.out.println("--ack-every cannot be larger than --buffer-cap, using " + capacity);
+            ackEvery = capacity;
+        }
+        return new CausalStability(localIndex, vectorClock, Math.max(1, capacity),
+                !options.getOrDefault("buffer-overflow", "block").equals("drop"), Math.max(1, ackEvery));
+    }
+
+    // records the clock a process sent, returns true if that made any of the local process's messages stable
+    public boolean observe(int sender, int[] clock) {
+        int[] row = acknowledged[sender];
+        for (int k = 0; k < row.length; k++) {
+            row[k] = Math.max(row[k], clock[k]);
+        }
+        int stable = stable(localIndex);
+        boolean removed = false;
+        while (!unstable.isEmpty() && unstable.peek().vectorClock[localIndex] <= stable) {
+            unstable.poll();
+            removed = true;
+        }
+        return removed;
+    }
+
+    // number of messages from process k that every process has delivered
+    public int stable(int k) {
+        int stable = vectorClock[k];
+        for (int j = 0; j < acknowledged.length; j++) {
+            if (j != localIndex) {
+                stable = Math.min(stable, acknowledged[j][k]);
+            }
+        }
+        return stable;
+    }
+
+    // keeps a sent message until it is stable, the clock is copied since the caller goes on changing it.
+    // with drop the oldest message makes room once the buffer is full
+    public void add(Message message) {
+        if (unstable.size() >= capacity) {
+            unstable.poll();
+            overflows++;
+        }
+        unstable.add(new Message(message.type, message.sender, message.sequence, message.vectorClock.clone(), message.payload));
+    }
+
+    // keeps a message the process sent before it restarted, these were already counted against the cap when they
+    // were sent so none of them makes room or counts as an overflow
+    public void restore(Message message) {
+        unstable.add(message);
+    }
+
+    // keeps a delivered message from another process until it is stable, so it can be handed to a process that
+    // missed it
+    public void retain(Message message) {
+        ArrayDeque<Message> kept = retained.get(message.sender);
+        if (kept.size() >= capacity) {
+            kept.poll();
+        }
+        kept.add(message);
+    }
+
+    // the kept messages a process whose clock is given has not delivered yet, oldest first for each sender
+    public List<Message> missing(int[] clock) {
+        List<Message> missing = new ArrayList<>();
+        for (int k = 0; k < clock.length; k++) {
+            for (Message message : k == localIndex ? unstable : retained.get(k)) {
+                if (message.vectorClock[k] > clock[k]) {
+                    missing.add(message);
+                }
+            }
+        }
+        return missing;
+    }
+
+    // the kept messages the process has not acked yet, for when it has restarted and lost what it was sent
+    public List<Message> unacknowledged(int process) {
+        return missing(acknowledged[process]);
+    }
+
+    // forgets the kept messages that have become stable, this costs n * n so it is done now and then rather than
+    // on every message
+    public void pruneRetained() {
+        for (int k = 0; k < retained.size(); k++) {
+            ArrayDeque<Message> kept = retained.get(k);
+            if (kept.isEmpty()) {
+                continue;
+            }
+            int stable = stable(k);
+            while (!kept.isEmpty() && kept.peek().vectorClock[k] <= stable) {
+                kept.poll();
+            }
+        }
+    }
+
+    // true when a broadcast has to wait for a stable message before it may be sent
+    public boolean mustWait() {
+        return block && unstable.size() >= capacity;
+    }
+
+    // true when enough has been delivered from one sender since the last message this process sent that it should
+    // ack them
+    public boolean ackDue(int deliveredSinceSend) {
+        return deliveredSinceSend >= ackEvery;
+    }
+
+    // sent messages that some process may not have delivered yet
+    public int unstable() {
+        return unstable.size();
+    }
+
+    // the local clock entry of the oldest sent message that is not stable, past the last one sent when all are
+    public int oldestUnstable() {
+        return unstable.isEmpty() ? vectorClock[localIndex] + 1 : unstable.peek().vectorClock[localIndex];
+    }
+
+    // sent messages forgotten before they were stable because the buffer was full
+    public int overflows() {
+        return overflows;
+    }
+}
@@ -0,0 +1,377 @@
+import java.io.*;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.IntSupplier;
+import java.util.zip.CRC32;
+
+// write-ahead log of everything the node broadcasts and delivers, so a restarted node gets its vector clock and
+// delivery count back from disk. records are appended to memory-mapped segment files, an append is a copy into the
+// mapping and the operating system writes the pages out, and each segment starts with a checkpoint of the clock.
+// the segment header holds the offset of the latest checkpoint, so replay maps the last segment and starts there:
+// the checkpoint restores the clock and every record after it applies its message. replay stops at the first record
+// that is cut short or fails its checksum, that is where a crash interrupted the last append. the header is only
+// moved once a checkpoint is complete, so a crash in between leaves replay starting at the one before
+//
+// a message is counted by the transport when it is read but only logged when it is delivered, so a restarted node
+// has lost whatever was still waiting in its delivery engine, and whatever it had sent that was still queued. the
+// other processes send it again every message of theirs it has not acked, acks only ever cover logged deliveries,
+// and the node sends its own messages found in the log again to every process that has not acked them. a checkpoint
+// also holds the segment and offset of the oldest of the node's own messages that was not yet stable when it was
+// written, and replay picks up the node's messages from there up to the checkpoint, going back into older segments
+// when that is where the oldest one is, before it reads on from the checkpoint
+//
+// WAL OPTIONS: --wal=<dir> turns the log on, with {id} replaced by the node's index. --wal-segment=bytes is the size
+// of a segment, 64 MB by default. --wal-sync=every|none|<ms> is when mapped pages are forced to disk: after every
+// append, never (left to the operating system), or by a background thread every that many milliseconds so all the
+// appends in between share one force, 10 by default. --wal-checkpoint=N writes a checkpoint every N records, 1000 by
+// default, older segments are kept as the node's history. a segment is at least large enough for a checkpoint and
+// the largest message the node sends
+//
+// RECORD FORMAT: a segment starts with <latest checkpoint:int32> and then its records, each
+// <length:int32> <crc32:int32> <kind:byte> <body>, the length and the checksum cover kind and body and a zero length
+// marks the end of the written part of a segment. a message body is the message as a binary frame with its full
+// clock, a checkpoint body is <entries:varint> <clock:varint...> <delivered:varint> followed by where the oldest
+// unstable message the node sent is, <segment:varint> <offset:varint>
+class DeliveryLog {
+    private static final byte MESSAGE = 1;
+    private static final byte CHECKPOINT = 2;
+    private static final int HEADER = 9;
+    private static final int SEGMENT_HEADER = 4;
+
+    private final Path dir;
+    private final int localIndex;
+    private final int[] vectorClock;
+    private final int segmentSize;
+    private final int checkpointInterval;
+    private final boolean syncEvery;
+    private final BinaryFormat format = new BinaryFormat();
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer scratch = ByteBuffer.allocate(4096);
+    private final ByteBuffer checkpointScratch; // apart from scratch, a checkpoint can come in the middle of an append
+    private volatile MappedByteBuffer segment;
+    private int segmentNumber;
+    private int sinceCheckpoint = 0;
+    private int delivered = 0;
+    private final List<Message> sent = new ArrayList<>(); // sent by this node and not known to be stable, from replay
+    private final ArrayDeque<int[]> sentOffsets = new ArrayDeque<>(); // {clock entry, segment, offset} of own messages
+    private IntSupplier oldestUnstable = () -> Integer.MAX_VALUE; // clock entry of the oldest sent message not stable
+    private Thread syncer;
+    private volatile boolean closed = false;
+
+    private DeliveryLog(Path dir, int localIndex, int[] vectorClock, int segmentSize, int checkpointInterval,
+                        boolean syncEvery) {
+        this.dir = dir;
+        this.localIndex = localIndex;
+        this.vectorClock = vectorClock;
+        this.segmentSize = segmentSize;
+        this.checkpointInterval = checkpointInterval;
+        this.syncEvery = syncEvery;
+        this.checkpointScratch = ByteBuffer.allocate(5 * (vectorClock.length + 4));
+    }
+
+    // opens the log configured by the --wal options and restores the clock from it, null without --wal
+    static DeliveryLog forOptions(Map<String, String> options, int localIndex, int[] vectorClock) throws IOException {
+        String target = options.get("wal");
+        if (target == null) {
+            return null;
+        }
+        String sync = options.getOrDefault("wal-sync", "10");
+        int segmentSize = Integer.parseInt(options.getOrDefault("wal-segment", String.valueOf(64 << 20)));
+        // the header, a checkpoint and the largest broadcast, a full clock carrying a send time, and the end marker
+        int smallest = SEGMENT_HEADER + HEADER + 5 * (vectorClock.length + 4) + HEADER
+                + new BinaryFormat().maxFrameSize(new Message(Message.BROADCAST, localIndex, 0, vectorClock,
+                new byte[Long.BYTES])) + 4;
+        if (segmentSize < smallest) {
+            System.out.println("--wal-segment cannot be smaller than a checkpoint and a message, using " + smallest);
+            segmentSize = smallest;
+        }
+        DeliveryLog wal = new DeliveryLog(Paths.get(target.replace("{id}", String.valueOf(localIndex))), localIndex,
+                vectorClock, segmentSize, Integer.parseInt(options.getOrDefault("wal-checkpoint", "1000")),
+                sync.equals("every"));
+        wal.open();
+        if (!sync.equals("every") && !sync.equals("none")) {
+            wal.startSyncer(Long.parseLong(sync));
+        }
+        return wal;
+    }
+
+    // messages delivered before the restart, as restored by replay
+    public int delivered() {
+        return delivered;
+    }
+
+    // messages this node broadcast that replay found, they may not have left before the restart
+    public List<Message> sent() {
+        return sent;
+    }
+
+    // where checkpoints find the oldest of the node's messages that some process may still need
+    public void unstableFrom(IntSupplier oldestUnstable) {
+        this.oldestUnstable = oldestUnstable;
+    }
+
+    // logs a message the node broadcast or delivered, called with the node's lock held after the clock has moved
+    public void append(Message message) {
+        // the record is built in a scratch buffer first, it is only copied into the mapping once it is complete
+        int[] delta = message.clockDelta;
+        message.clockDelta = null;
+        while (true) {
+            try {
+                scratch.clear();
+                format.encode(message, scratch);
+                break;
+            } catch (BufferOverflowException e) {
+                scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+            }
+        }
+        message.clockDelta = delta;
+        scratch.flip();
+        int offset = write(MESSAGE, scratch);
+        // counted only once it is written, a checkpoint that rolled the segment for it must not count it already
+        if (message.sender != localIndex) {
+            delivered++;
+        } else {
+            sentOffsets.add(new int[]{message.vectorClock[localIndex], segmentNumber, offset});
+        }
+
+        if (++sinceCheckpoint >= checkpointInterval) {
+            checkpoint();
+        }
+        if (syncEvery) {
+            segment.force();
+        }
+    }
+
+    // forces everything appended so far to disk and stops the background sync
+    public void close() {
+        closed = true;
+        if (syncer != null) {
+            syncer.interrupt();
+        }
+        segment.force();
+    }
+
+    private void open() throws IOException {
+        Files.createDirectories(dir);
+        List<Integer> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.wal")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.add(Integer.parseInt(name.substring(0, name.length() - 4)));
+            }
+        }
+        if (segments.isEmpty()) {
+            roll(1);
+            return;
+        }
+        segmentNumber = Collections.max(segments);
+        segment = map(segmentNumber);
+        replay();
+        System.out.println("Replayed " + delivered + " deliveries from " + segmentPath(segmentNumber)
+                + ", vector clock " + Arrays.toString(vectorClock));
+    }
+
+    // reads the mapped segment from its latest checkpoint, leaving the mapping positioned after the last intact record
+    private void replay() throws IOException {
+        MappedByteBuffer in = segment;
+        int latest = Math.max(SEGMENT_HEADER, in.getInt(0));
+        in.position(latest);
+        ByteBuffer checkpoint = next(in);
+        int[] sentFrom = checkpoint != null && checkpoint.get(0) == CHECKPOINT ? restore(checkpoint)
+                : new int[]{segmentNumber, latest};
+
+        // the node's own messages from before the checkpoint, only as far back as it had one that was not stable
+        for (int number = sentFrom[0]; number < segmentNumber; number++) {
+            if (Files.exists(segmentPath(number))) {
+                ByteBuffer older = mapForReading(number);
+                older.position(number == sentFrom[0] ? Math.min(sentFrom[1], older.limit()) : SEGMENT_HEADER);
+                recoverSent(older, number);
+            }
+        }
+        ByteBuffer earlier = in.duplicate();
+        earlier.position(sentFrom[0] == segmentNumber ? Math.min(sentFrom[1], latest) : SEGMENT_HEADER).limit(latest);
+        recoverSent(earlier, segmentNumber);
+
+        while (true) {
+            int start = in.position();
+            ByteBuffer body = next(in);
+            if (body == null) {
+                break;
+            }
+            byte kind = body.get();
+            if (kind == CHECKPOINT) {
+                body.position(0);
+                restore(body);
+            } else if (kind == MESSAGE) {
+                Message message = format.decode(body);
+                vectorClock[message.sender] = message.vectorClock[message.sender];
+                if (message.sender != localIndex) {
+                    delivered++;
+                } else {
+                    recover(message, segmentNumber, start);
+                }
+                sinceCheckpoint++;
+            }
+        }
+    }
+
+    // the node's own messages in what is left of the buffer, checkpoints there were read already
+    private void recoverSent(ByteBuffer in, int number) {
+        while (true) {
+            int start = in.position();
+            ByteBuffer body = next(in);
+            if (body == null) {
+                break;
+            }
+            if (body.get() == MESSAGE) {
+                Message message = format.decode(body);
+                if (message.sender == localIndex) {
+                    recover(message, number, start);
+                }
+            }
+        }
+    }
+
+    // a message the node sent before the restart, kept for the next checkpoint until it is stable
+    private void recover(Message message, int number, int offset) {
+        sent.add(message);
+        sentOffsets.add(new int[]{message.vectorClock[localIndex], number, offset});
+    }
+
+    // the body of the next intact record with the buffer moved past it, or null with the buffer left where it was
+    private ByteBuffer next(ByteBuffer in) {
+        if (in.remaining() < HEADER) {
+            return null;
+        }
+        int start = in.position();
+        int length = in.getInt();
+        int checksum = in.getInt();
+        if (length <= 0 || length > in.remaining()) {
+            in.position(start);
+            return null;
+        }
+        ByteBuffer body = in.slice();
+        body.limit(length);
+        crc.reset();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            in.position(start);
+            return null;
+        }
+        in.position(in.position() + length);
+        return body;
+    }
+
+    // restores the clock and the delivery count from a checkpoint body, returns the segment and offset where its
+    // unstable sent messages start
+    private int[] restore(ByteBuffer body) {
+        body.get(); // kind
+        int entries = BinaryFormat.getVarint(body);
+        for (int i = 0; i < entries; i++) {
+            vectorClock[i] = BinaryFormat.getVarint(body);
+        }
+        delivered = BinaryFormat.getVarint(body);
+        sinceCheckpoint = 0;
+        return new int[]{BinaryFormat.getVarint(body), BinaryFormat.getVarint(body)};
+    }
+
+    private void checkpoint() {
+        if (segment.remaining() < 4 + 4 + 1 + checkpointScratch.capacity() + 4) {
+            roll(segmentNumber + 1); // which starts the new segment with a checkpoint
+            return;
+        }
+        // messages that became stable no longer need to be found on replay
+        int oldest = oldestUnstable.getAsInt();
+        while (!sentOffsets.isEmpty() && sentOffsets.peek()[0] < oldest) {
+            sentOffsets.poll();
+        }
+        int start = segment.position();
+        checkpointScratch.clear();
+        BinaryFormat.putVarint(checkpointScratch, vectorClock.length);
+        for (int entry : vectorClock) {
+            BinaryFormat.putVarint(checkpointScratch, entry);
+        }
+        BinaryFormat.putVarint(checkpointScratch, delivered);
+        BinaryFormat.putVarint(checkpointScratch, sentOffsets.isEmpty() ? segmentNumber : sentOffsets.peek()[1]);
+        BinaryFormat.putVarint(checkpointScratch, sentOffsets.isEmpty() ? start : sentOffsets.peek()[2]);
+        checkpointScratch.flip();
+        write(CHECKPOINT, checkpointScratch);
+        segment.putInt(0, start); // only once the checkpoint is complete
+        sinceCheckpoint = 0;
+    }
+
+    // appends a record and returns its offset in the segment
+    private int write(byte kind, ByteBuffer body) {
+        int length = 1 + body.remaining();
+        if (segment.remaining() < 4 + 4 + length + 4) {
+            roll(segmentNumber + 1); // the new segment starts with a checkpoint, which points back at anything else
+            if (segment.remaining() < 4 + 4 + length + 4) {
+                throw new IllegalStateException("A log record of " + length + " bytes does not fit in a segment of "
+                        + segmentSize + " bytes, raise --wal-segment");
+            }
+        }
+        crc.reset();
+        crc.update(kind);
+        crc.update(body.duplicate());
+        int start = segment.position();
+        segment.position(start + 8);
+        segment.put(kind);
+        segment.put(body);
+        // the length goes in last, so a record is never seen half written
+        segment.putInt(start + 4, (int) crc.getValue());
+        segment.putInt(start, length);
+        return start;
+    }
+
+    private void roll(int number) {
+        try {
+            if (segment != null) {
+                segment.force();
+            }
+            segmentNumber = number;
+            segment = map(number);
+            segment.position(SEGMENT_HEADER);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create log segment " + segmentPath(number), e);
+        }
+        checkpoint();
+    }
+
+    private MappedByteBuffer map(int number) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(number), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    // an older segment as far as it was written, it is only read
+    private MappedByteBuffer mapForReading(int number) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(number), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private Path segmentPath(int number) {
+        return dir.resolve(String.format("%08d.wal", number));
+    }
+
+    // group commit: every interval the pages written since the last force go to disk in one go
+    private void startSyncer(long intervalMillis) {
+        syncer = new Thread(() -> {
+            while (!closed) {
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                segment.force();
+            }
+        }, "wal-sync");
+        syncer.setDaemon(true);
+        syncer.start();
+    }
+}
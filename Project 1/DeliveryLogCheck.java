@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.Stream;
+
+// restarts a delivery log with small segments and checks that replay gives back the clock, the delivery count and
+// every message the node sent that was not yet stable, also when those were written to segments before the last one
+public class DeliveryLogCheck {
+    private static final int NUM_HOSTS = 4;
+    private static int failures = 0;
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        Node.parseOptions(args, options);
+        int numMessages = Integer.parseInt(options.getOrDefault("messages", "200"));
+        String segment = options.getOrDefault("wal-segment", "1024");
+
+        // nothing acked: every message sent has to come back, from all the segments written
+        check("none stable", numMessages, segment, sent -> 0);
+        // the last few unacked: replay may hand back a few stable ones too, but no unstable one may be missing
+        check("last 7 unstable", numMessages, segment, sent -> Math.max(0, sent - 7));
+        // a segment too small for a checkpoint and a message is raised to one that holds them
+        check("tiny segment", numMessages, "16", sent -> Math.max(0, sent - 7));
+
+        System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    // logs numMessages broadcasts from process 0 and a delivery from each other process after each, restarts the log
+    // and compares what replay restored
+    private static void check(String name, int numMessages, String segmentSize,
+                              IntUnaryOperator stableAfter) throws IOException {
+        Path dir = Files.createTempDirectory("wal-check");
+        Map<String, String> options = new HashMap<>();
+        options.put("wal", dir.toString());
+        options.put("wal-segment", segmentSize);
+        options.put("wal-checkpoint", "10");
+        options.put("wal-sync", "none");
+        try {
+            int[] clock = new int[NUM_HOSTS];
+            int[] stable = {0};
+            DeliveryLog wal = DeliveryLog.forOptions(options, 0, clock);
+            wal.unstableFrom(() -> stable[0] + 1);
+            for (int i = 1; i <= numMessages; i++) {
+                clock[0]++;
+                wal.append(new Message(Message.BROADCAST, 0, i, clock, null));
+                for (int k = 1; k < NUM_HOSTS; k++) {
+                    clock[k]++;
+                    wal.append(new Message(Message.BROADCAST, k, i, clock, null));
+                }
+                stable[0] = stableAfter.applyAsInt(i);
+            }
+            wal.close();
+
+            int[] restored = new int[NUM_HOSTS];
+            DeliveryLog again = DeliveryLog.forOptions(options, 0, restored);
+            List<Integer> sent = new ArrayList<>();
+            for (Message message : again.sent()) {
+                sent.add(message.sequence);
+            }
+            again.close();
+            int firstUnstable = stable[0] + 1;
+            boolean complete = !sent.isEmpty() && sent.get(0) <= firstUnstable
+                    && sent.get(sent.size() - 1) == numMessages && sent.size() == numMessages - sent.get(0) + 1;
+            if (!Arrays.equals(restored, clock) || again.delivered() != numMessages * (NUM_HOSTS - 1) || !complete) {
+                failures++;
+                System.out.println(name + ": FAILED, clock " + Arrays.toString(restored) + ", " + again.delivered()
+                        + " deliveries, sent " + (sent.isEmpty() ? "none" : sent.get(0) + ".." + sent.get(sent.size() - 1))
+                        + " (" + sent.size() + "), expected " + Arrays.toString(clock) + ", "
+                        + numMessages * (NUM_HOSTS - 1) + " deliveries, sent " + firstUnstable + ".." + numMessages);
+            } else {
+                System.out.println(name + ": ok, " + sent.size() + " sent messages recovered");
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+}
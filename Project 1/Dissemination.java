@@ -0,0 +1,111 @@
+import java.util.*;
+
+// which processes a broadcast is written to. direct has the origin write it to every other process itself, which
+// costs the origin n-1 copies. tree relays it down a spanning tree rooted at the origin, where process r places
+// after the origin relays to places r*f+1 .. r*f+f, so every process writes at most f copies and the message is
+// log_f(n) hops from everyone. gossip has each process pass every message it delivers on to f processes picked at
+// random, and once every interval asks one random process for what it has that this one has not delivered, so a
+// message the random pushes missed still arrives. relaying happens on delivery, so each process relays a message
+// once and in causal order, and the delivery engine drops the copies that arrive more than once
+//
+// DISSEMINATION OPTIONS: --dissemination=direct|tree|gossip, direct by default. --fanout=f, 2 for tree and
+// log2(n) + 1 for gossip by default. --gossip-interval=ms is the time between pulls, 50 by default. the random picks
+// come from --seed and the process index, so a simulated run can be repeated
+class Dissemination {
+    private final int localIndex;
+    private final int numHosts;
+    private final String mode;
+    private final int fanout;
+    private final long pullInterval;
+    private final Random random;
+
+    private Dissemination(int localIndex, int numHosts, String mode, int fanout, long pullInterval, long seed) {
+        this.localIndex = localIndex;
+        this.numHosts = numHosts;
+        this.mode = mode;
+        this.fanout = Math.max(1, fanout);
+        this.pullInterval = pullInterval;
+        this.random = new Random(seed * 31 + localIndex);
+    }
+
+    static Dissemination forOptions(Map<String, String> options, int localIndex, int numHosts) {
+        String mode = options.getOrDefault("dissemination", "direct");
+        if (!mode.equals("direct") && !mode.equals("tree") && !mode.equals("gossip")) {
+            System.out.println("Unknown dissemination: " + mode + ", sending directly");
+            mode = "direct";
+        }
+        int defaultFanout = mode.equals("gossip") ? 32 - Integer.numberOfLeadingZeros(numHosts) : 2;
+        return new Dissemination(localIndex, numHosts, mode,
+                Integer.parseInt(options.getOrDefault("fanout", String.valueOf(defaultFanout))),
+                Long.parseLong(options.getOrDefault("gossip-interval", "50")),
+                Long.parseLong(options.getOrDefault("seed", "1")));
+    }
+
+    // true when messages are passed on by processes other than their origin
+    public boolean relays() {
+        return !mode.equals("direct");
+    }
+
+    // true when processes pull what they missed from each other, which needs delivered messages to be kept
+    public boolean pulls() {
+        return mode.equals("gossip");
+    }
+
+    public long pullInterval() {
+        return pullInterval;
+    }
+
+    // the processes this process writes a message from the origin to, when it sends or delivers it
+    public int[] targets(int origin) {
+        switch (mode) {
+            case "tree": {
+                int place = (localIndex - origin + numHosts) % numHosts;
+                int first = place * fanout + 1;
+                int count = Math.max(0, Math.min(fanout, numHosts - first));
+                int[] children = new int[count];
+                for (int i = 0; i < count; i++) {
+                    children[i] = (origin + first + i) % numHosts;
+                }
+                return children;
+            }
+            case "gossip":
+                return randomPeers(fanout, origin);
+            default: {
+                if (origin != localIndex) {
+                    return new int[0];
+                }
+                int[] everyone = new int[numHosts - 1];
+                for (int j = 0, i = 0; j < numHosts; j++) {
+                    if (j != localIndex) {
+                        everyone[i++] = j;
+                    }
+                }
+                return everyone;
+            }
+        }
+    }
+
+    // a random process to pull from, -1 when this is the only process
+    public int pullTarget() {
+        int[] peer = randomPeers(1, localIndex);
+        return peer.length == 0 ? -1 : peer[0];
+    }
+
+    // up to count distinct processes other than this one and the origin, which already have the message
+    private int[] randomPeers(int count, int origin) {
+        int candidates = numHosts - (origin == localIndex ? 1 : 2);
+        count = Math.max(0, Math.min(count, candidates));
+        int[] peers = new int[count];
+        for (int i = 0; i < count; ) {
+            int peer = random.nextInt(numHosts);
+            boolean taken = peer == localIndex || peer == origin;
+            for (int j = 0; j < i && !taken; j++) {
+                taken = peers[j] == peer;
+            }
+            if (!taken) {
+                peers[i++] = peer;
+            }
+        }
+        return peers;
+    }
+}
@@ -0,0 +1,25 @@
+import java.util.Arrays;
+
+// the events a node logs and the line each one reads as, the same lines the node has always printed
+class LogEvents {
+    public static final byte SENT = 1; // a = the message number, peer = where it was sent
+    public static final byte CLOCK = 2; // the vector clock after a broadcast
+    public static final byte RECEIVED = 3;
+    public static final byte DELIVERED = 4;
+
+    static String describe(TextFormat textFormat, String[] hosts, byte event, Message message, int[] clock, int peer,
+                           int a, int b) {
+        switch (event) {
+            case SENT:
+                return "Message " + a + " sent to " + hosts[peer];
+            case CLOCK:
+                return "Vector clock: " + Arrays.toString(clock);
+            case RECEIVED:
+                return "Received message: " + textFormat.format(message);
+            case DELIVERED:
+                return "Delivering: " + textFormat.format(message);
+            default:
+                return "Unknown event " + event;
+        }
+    }
+}
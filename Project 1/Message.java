@@ -0,0 +1,25 @@
+// Message class to hold the fields of a single frame, independently of the wire format it arrived in
+class Message {
+    // message types, the values are written as-is by the binary wire format
+    public static final byte BROADCAST = 1;
+    public static final byte ACK = 2; // carries only the sender's clock, to tell the others what it has delivered
+    public static final byte MULTICAST = 3; // to the members of a group, the clock is the sender's matrix clock
+    public static final byte PULL = 4; // asks for the messages the sender has not delivered, going by its clock
+
+    public byte type;
+    public int sender; // index of the sending process in the sorted hosts array
+    public int sequence; // per-sender message number
+    public int[] vectorClock;
+    public int[] clockDelta; // changed clock entries as index/value pairs when the clock is sent compressed
+    public byte[] payload; // optional application data, null when there is none
+    public long receivedAt; // System.nanoTime() when the message arrived, only set when metrics are on
+    public int link; // the process the message arrived from, which is the sender unless it was relayed
+
+    public Message(byte type, int sender, int sequence, int[] vectorClock, byte[] payload) {
+        this.type = type;
+        this.sender = sender;
+        this.sequence = sequence;
+        this.vectorClock = vectorClock;
+        this.payload = payload;
+    }
+}
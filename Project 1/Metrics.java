@@ -0,0 +1,234 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+// counters and histograms of one node. every metric is published as an attribute of a JMX bean named after the node
+// and, when a file is given, a snapshot of all of them is appended to it every interval as CSV or JSON lines
+//
+// METRICS OPTION: --metrics=jmx only publishes through JMX, --metrics=<file> also writes snapshots to the file, as
+// JSON lines if the name ends in .json and CSV otherwise. without the option the metrics are still counted but
+// nothing is published and messages do not carry the send time needed for latencies
+class Metrics {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] QUANTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private final String node;
+    private final boolean enabled;
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private ScheduledExecutorService dumper;
+    private PrintWriter out;
+    private boolean json;
+
+    private Metrics(String node, boolean enabled) {
+        this.node = node;
+        this.enabled = enabled;
+    }
+
+    // metrics for the node as configured by the --metrics and --metrics-interval options
+    static Metrics forOptions(Map<String, String> options, String node) {
+        String target = options.get("metrics");
+        Metrics metrics = new Metrics(node, target != null);
+        if (target != null) {
+            metrics.registerBean();
+            if (!target.equals("jmx")) {
+                metrics.startDumps(target, Long.parseLong(options.getOrDefault("metrics-interval", "1000")));
+            }
+        }
+        return metrics;
+    }
+
+    // whether the metrics are published, measurements that cost more than a counter are skipped otherwise
+    public boolean enabled() {
+        return enabled;
+    }
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    // wall clock time in microseconds, comparable between machines as far as their clocks are in sync
+    static long wallMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000 + now.getNano() / 1000;
+    }
+
+    // a payload carrying the send time, for the receiver to measure the latency with
+    static byte[] timestamp() {
+        return ByteBuffer.allocate(Long.BYTES).putLong(wallMicros()).array();
+    }
+
+    // microseconds since the send time carried by the payload, -1 if the message does not carry one
+    static long microsSince(byte[] payload) {
+        if (payload == null || payload.length != Long.BYTES) {
+            return -1;
+        }
+        return wallMicros() - ByteBuffer.wrap(payload).getLong();
+    }
+
+    // writes a final snapshot and stops the periodic ones
+    public void close() {
+        if (dumper != null) {
+            dumper.shutdown();
+            dump();
+            out.close();
+        }
+    }
+
+    private void startDumps(String path, long intervalMs) {
+        try {
+            boolean exists = new File(path).length() > 0;
+            out = new PrintWriter(new BufferedWriter(new FileWriter(path, true)));
+            json = path.endsWith(".json");
+            if (!json && !exists) {
+                out.println("time,node,metric,count,mean,p50,p90,p99,p999,max");
+            }
+        } catch (IOException e) {
+            System.out.println("Unable to write metrics to " + path + ": " + e.getMessage());
+            return;
+        }
+        dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(this::dump, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void dump() {
+        long time = System.currentTimeMillis();
+        if (json) {
+            StringBuilder line = new StringBuilder();
+            line.append("{\"time\":").append(time).append(",\"node\":\"").append(node).append("\",\"counters\":{");
+            String separator = "";
+            for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+                line.append(separator).append('"').append(counter.getKey()).append("\":").append(counter.getValue().sum());
+                separator = ",";
+            }
+            line.append("},\"histograms\":{");
+            separator = "";
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                Histogram histogram = entry.getValue();
+                line.append(separator).append('"').append(entry.getKey()).append("\":{\"count\":").append(histogram.count())
+                        .append(",\"mean\":").append(String.format(Locale.ROOT, "%.1f", histogram.mean()));
+                for (int i = 0; i < QUANTILES.length; i++) {
+                    line.append(",\"").append(QUANTILE_NAMES[i]).append("\":").append(histogram.valueAt(QUANTILES[i]));
+                }
+                line.append(",\"max\":").append(histogram.max()).append('}');
+                separator = ",";
+            }
+            out.println(line.append("}}"));
+        } else {
+            for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+                out.println(time + "," + node + "," + counter.getKey() + "," + counter.getValue().sum() + ",,,,,,");
+            }
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                Histogram histogram = entry.getValue();
+                StringBuilder line = new StringBuilder();
+                line.append(time).append(',').append(node).append(',').append(entry.getKey()).append(',')
+                        .append(histogram.count()).append(',').append(String.format(Locale.ROOT, "%.1f", histogram.mean()));
+                for (double quantile : QUANTILES) {
+                    line.append(',').append(histogram.valueAt(quantile));
+                }
+                out.println(line.append(',').append(histogram.max()));
+            }
+        }
+        out.flush();
+    }
+
+    private void registerBean() {
+        try {
+            ObjectName name = new ObjectName("distributed-systems:type=Node,name=" + ObjectName.quote(node));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), name);
+        } catch (JMException e) {
+            System.out.println("Unable to publish metrics through JMX: " + e.getMessage());
+        }
+    }
+
+    // read-only JMX view of the metrics, a counter is an attribute of its own and a histogram is published as
+    // <name>.count, <name>.mean, <name>.p50 and so on up to <name>.max
+    private class Bean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            LongAdder counter = counters.get(attribute);
+            if (counter != null) {
+                return counter.sum();
+            }
+            int dot = attribute.lastIndexOf('.');
+            Histogram histogram = dot < 0 ? null : histograms.get(attribute.substring(0, dot));
+            if (histogram != null) {
+                String statistic = attribute.substring(dot + 1);
+                switch (statistic) {
+                    case "count":
+                        return histogram.count();
+                    case "mean":
+                        return histogram.mean();
+                    case "max":
+                        return histogram.max();
+                }
+                for (int i = 0; i < QUANTILES.length; i++) {
+                    if (QUANTILE_NAMES[i].equals(statistic)) {
+                        return histogram.valueAt(QUANTILES[i]);
+                    }
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // left out of the list, as the interface expects
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(action));
+        }
+
+        // built on every call since metrics are created as they are first used
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String counter : counters.keySet()) {
+                attributes.add(new MBeanAttributeInfo(counter, "long", "counter", true, false, false));
+            }
+            for (String histogram : histograms.keySet()) {
+                attributes.add(new MBeanAttributeInfo(histogram + ".count", "long", "values recorded", true, false, false));
+                attributes.add(new MBeanAttributeInfo(histogram + ".mean", "double", "mean value", true, false, false));
+                for (String quantile : QUANTILE_NAMES) {
+                    attributes.add(new MBeanAttributeInfo(histogram + "." + quantile, "long", quantile + " value", true, false, false));
+                }
+                attributes.add(new MBeanAttributeInfo(histogram + ".max", "long", "largest value", true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "Metrics of node " + node,
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
@@ -3,109 +3,235 @@
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+// one process of the cluster. all of its state lives in the instance so a simulation can run many nodes in one JVM,
+// main runs a single node over real sockets
 public class Node {
-    private static final int BASE_PORT = 50000;
-    private static Queue<Pair> messageBuffer = new ConcurrentLinkedQueue<>();
-    private static int numMessagesDelivered = 0;
-    private static String[] hosts = new String[4];
-
-    // starts a server on the specified port
-    private static void startServer(int port, int[] vectorClock) {
-        Random random = new Random();
-        new Thread(() -> {
-            try (ServerSocket serverSocket = new ServerSocket(port)) {
-                while (true) {
-                    Socket clientSocket = serverSocket.accept(); // block until a client connects
-
-                    // create a new thread to handle the client
-                    new Thread(() -> {
-                        try {
-                            BufferedReader in = new BufferedReader(
-                                    new InputStreamReader(clientSocket.getInputStream()));
-                            String inputLine;
-                            // read the input from the client
-                            while ((inputLine = in.readLine()) != null) {
-                                System.out.println("Received message: " + inputLine);
-                                numMessagesDelivered++;
-                                // Thread.sleep(1 + random.nextInt(5)); // emulate network delay
-                                onMessageReceived(inputLine, vectorClock);
-                            }
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                    }).start();
+    private int numMessagesDelivered = 0;
+    private final int[] clockAtLastSend; // deliveries already acknowledged by the last message this process sent
+    private int multicastsSent = 0; // numbers the multicasts, with groups the clock only counts deliveries
+    private int acksSentCount = 0; // numbers the acks, so a relayed ack is only passed on the first time it arrives
+    private final int[] lastAck; // the latest ack number seen from each process
+    private final String[] hosts;
+    private final int processIndex;
+    private final Membership membership;
+    private final Map<String, String> options;
+    private final WireFormat wireFormat;
+    private final int[] vectorClock;
+    private final CausalDelivery causalDelivery;
+    private final ClockCompression clockCompression;
+    private final boolean compressClocks; // send only the clock entries that changed since the last message to a host
+    private final EventLog log; // every message sent, received and delivered
+    private final DeliveryLog wal; // what was broadcast and delivered, for a restart to pick up from, null without --wal
+    private final CausalStability stability; // the messages this process sent until every process has delivered them
+    private final CausalMulticast multicast; // the groups and the matrix clock, null unless --groups is given
+    private final Dissemination dissemination; // who writes each broadcast to whom
+    private Transport transport;
+    // guards the clock and the delivery engine. a lock rather than synchronized, so a virtual thread that waits
+    // while holding it does not pin its carrier thread
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition delivered = lock.newCondition(); // signalled on every delivery
+    private final Condition stabilized = lock.newCondition(); // signalled when sent messages become stable
+    private final Condition credited = lock.newCondition(); // signalled when a remote host grants more credit
+    private final Metrics metrics;
+    private final LongAdder messagesSent;
+    private final LongAdder messagesReceived;
+    private final LongAdder messagesDelivered;
+    private final LongAdder acksSent;
+    private final LongAdder messagesRelayed;
+    private final LongAdder sendsDeferred; // times a broadcast waited for credit
+    private final Histogram deliveryLatency; // microseconds from broadcast to delivery
+    private final Histogram bufferedTime; // microseconds from arrival to delivery
+    private final Histogram bufferDepth; // messages waiting in the delivery engine after each arrival
+
+    // sets up the node's clock and delivery engine, delivered messages are also passed to the observer if there is one
+    public Node(Membership membership, Map<String, String> options, CausalDelivery.Deliverer observer) {
+        // every node has a unique name and its index in the membership is its index in the vector clock
+        this.membership = membership;
+        this.options = options;
+        this.hosts = membership.names;
+        this.processIndex = membership.localIndex;
+
+        // binary frames by default, the original text lines can still be selected for debugging
+        log = EventLog.forOptions(options, hosts, processIndex);
+        wireFormat = WireFormat.forName(options.getOrDefault("wire", "binary"), hosts);
+
+        // compressed clocks are only understood by the binary format, the text lines always carry the full clock.
+        // a relayed message arrives over another link than the one its clock was compressed for, so it needs the full one
+        dissemination = Dissemination.forOptions(options, processIndex, hosts.length);
+        clockCompression = new ClockCompression(hosts.length);
+        boolean compressed = wireFormat instanceof BinaryFormat && options.getOrDefault("clock", "compressed").equals("compressed");
+        if (compressed && dissemination.relays()) {
+            System.out.println("Relayed messages carry full clocks, using --clock=full");
+        }
+        compressClocks = compressed && !dissemination.relays();
+        lastAck = new int[hosts.length];
+
+        // with groups the vector clock counts deliveries from each sender, the causal past travels in the matrix clock
+        multicast = CausalMulticast.forOptions(options, processIndex, hosts.length);
+        if (multicast != null && options.containsKey("wal")) {
+            System.out.println("The delivery log only replays broadcasts, running without --wal");
+            options.remove("wal");
+        }
+
+        // initialize the vector clock, from the delivery log if the node ran before
+        vectorClock = new int[hosts.length];
+        DeliveryLog deliveryLog = null;
+        try {
+            deliveryLog = DeliveryLog.forOptions(options, processIndex, vectorClock);
+        } catch (IOException e) {
+            System.out.println("Cannot open the delivery log: " + e.getMessage());
+        }
+        wal = deliveryLog;
+        if (wal != null) {
+            numMessagesDelivered = wal.delivered();
+        }
+        clockAtLastSend = vectorClock.clone();
+        stability = CausalStability.forOptions(options, processIndex, vectorClock);
+        if (wal != null) {
+            for (Message message : wal.sent()) {
+                stability.restore(message); // unstable until acked, like any sent message
+            }
+            wal.unstableFrom(stability::oldestUnstable);
+        }
+
+        metrics = Metrics.forOptions(options, hosts[processIndex]);
+        messagesSent = metrics.counter("messagesSent");
+        messagesReceived = metrics.counter("messagesReceived");
+        messagesDelivered = metrics.counter("messagesDelivered");
+        acksSent = metrics.counter("acksSent");
+        messagesRelayed = metrics.counter("messagesRelayed");
+        sendsDeferred = metrics.counter("sendsDeferred");
+        deliveryLatency = metrics.histogram("deliveryLatencyMicros");
+        bufferedTime = metrics.histogram("bufferedMicros");
+        bufferDepth = metrics.histogram("bufferDepth");
+
+        // received messages are held back until every message they causally depend on has been delivered
+        causalDelivery = new CausalDelivery(vectorClock, message -> {
+            log.log(EventLog.INFO, LogEvents.DELIVERED, message, -1, 0, 0);
+            if (message.type == Message.MULTICAST) {
+                multicast.deliver(message);
+            } else if (dissemination.relays()) {
+                messagesRelayed.add(sendTo(dissemination.targets(message.sender), message));
+                if (dissemination.pulls()) {
+                    stability.retain(message);
                 }
-            } catch (IOException e) {
-                System.out.println(
-                        "Exception caught when trying to listen on port " + port + " or listening for a connection");
-                System.out.println(e.getMessage());
             }
-        }).start();
+            if (wal != null) {
+                wal.append(message);
+            }
+            numMessagesDelivered++;
+            delivered.signalAll();
+            messagesDelivered.increment();
+            if (metrics.enabled()) {
+                long latency = Metrics.microsSince(message.payload);
+                if (latency >= 0) {
+                    deliveryLatency.record(latency);
+                }
+                bufferedTime.record((System.nanoTime() - message.receivedAt) / 1000);
+            }
+            if (observer != null) {
+                observer.deliver(message);
+            }
+        });
     }
 
-    // continuously attempt to connect to each host
-    private static PrintWriter connectToHost(String host, int port, CountDownLatch latch) {
-        while (true) {
-            try {
-                Socket socket = new Socket(host, port);
-                latch.countDown();
-                return new PrintWriter(socket.getOutputStream(), true);
-            } catch (IOException e) {
-                // System.out.println("Failed to connect to server, retrying...");
-                try {
-                    Thread.sleep(1000); // Wait for 1 second before retrying
-                } catch (InterruptedException ie) {
-                    ie.printStackTrace();
+    // starts the transport and listens on the specified port, decoded messages are handed to onMessageReceived
+    private void startServer(int port) {
+        int ioThreads = Integer.parseInt(options.getOrDefault("io-threads", "2"));
+        long flushInterval = Long.parseLong(options.getOrDefault("flush-interval", "0"));
+        int batchSize = Integer.parseInt(options.getOrDefault("batch-size", "32768"));
+        long heartbeat = Long.parseLong(options.getOrDefault("heartbeat", "100"));
+        int credits = Integer.parseInt(options.getOrDefault("credits", "4096"));
+        try {
+            // messages are handled on the I/O threads unless --threads moves them to an executor
+            // a link is granted less credit while the messages that came in on it wait in the delivery engine, read
+            // without the lock since a slightly stale size does no harm
+            Transport.Listener node = new Transport.Listener() {
+                @Override
+                public void onMessage(int link, Message message) {
+                    onMessageReceived(link, message);
                 }
-            }
+
+                @Override
+                public int backlog(int link) {
+                    return causalDelivery.buffered(link);
+                }
+
+                @Override
+                public void restarted(int link) {
+                    resend(link);
+                }
+
+                @Override
+                public void credited(int link) {
+                    lock.lock();
+                    try {
+                        credited.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            };
+            Transport.Listener listener = Dispatcher.forName(options.getOrDefault("threads", "io"), hosts.length, node);
+            transport = new NioTransport(wireFormat, processIndex, hosts.length, ioThreads, flushInterval, batchSize,
+                    heartbeat, credits, listener);
+            transport.listen(port);
+        } catch (IOException e) {
+            System.out.println(
+                    "Exception caught when trying to listen on port " + port + " or listening for a connection");
+            System.out.println(e.getMessage());
         }
     }
 
+    // sends through the given transport instead of opening sockets, its listener has to hand messages to onMessageReceived
+    public void useTransport(Transport transport) {
+        this.transport = transport;
+    }
+
     public static void main(String[] args) {
-        // input validation
-        if(!validInputs(args)) {
-            System.out.println("Usage: java Node <localHost> <remoteHost1> <remoteHost2> <remoteHost3>");
+        // options are given as --name=value and may appear anywhere, the remaining arguments are the hosts
+        Map<String, String> options = new HashMap<>();
+        args = parseOptions(args, options);
+
+        // the cluster comes from a membership file, a local cluster on this machine, or the hosts on the command line
+        Membership membership = loadMembership(args, options);
+        if (membership == null) {
+            System.out.println("Usage: java Node [options] <localHost> <remoteHost1> [<remoteHost2> ...]");
+            System.out.println("   or: java Node [options] --members=<file> --id=<id>");
+            System.out.println("   or: java Node [options] --local=<numNodes> --id=<id> [--base-port=<port>]");
+            System.out.println("Options: [--wire=binary|text] [--clock=compressed|full] [--io-threads=N] [--flush-interval=ms] [--batch-size=bytes] [--heartbeat=ms] [--credits=N] [--threads=io|virtual|platform] [--metrics=jmx|file] [--log=console|off|file] [--log-level=info|debug] [--wal=dir] [--wal-sync=every|none|ms] [--wal-segment=bytes] [--wal-checkpoint=N] [--buffer-cap=N] [--buffer-overflow=block|drop] [--ack-every=N] [--groups=name:i,j,...;...] [--dissemination=direct|tree|gossip] [--fanout=f] [--gossip-interval=ms]");
             return;
         }
+        new Node(membership, options, null).run();
+    }
 
-        // first argument is the local host, hash to get the port
-        String localHost = args[0];
-        int localPort = getPort(localHost);
-
-        // get all of the hosts from the arguments and sort to get the index for the vector clock
-        hosts = args.clone();
-        Arrays.sort(hosts);
-
-        // find the index of this process in the sorted arguments
-        int processIndex = Arrays.asList(hosts).indexOf(args[0]);
-
-        // initialize the vector clock
-        int[] vectorClock = new int[args.length];
+    // connects to the rest of the cluster, broadcasts 100 messages and waits until every message has been delivered
+    private void run() {
+        String localHost = hosts[processIndex];
+        int localPort = membership.ports[processIndex];
 
         // start listening on the local port
-        startServer(localPort, vectorClock);
-
-        List<String> remoteHosts = new ArrayList<>();
+        startServer(localPort);
 
-        CountDownLatch latch = new CountDownLatch(args.length - 1);
-        PrintWriter[] writers = new PrintWriter[args.length - 1];
+        CountDownLatch latch = new CountDownLatch(hosts.length - 1);
 
         Random random = new Random(); // random number generator for sle ep times
 
-        for (int i = 1; i < args.length; i++) {
-            String remoteHost = args[i];
-            int remotePort = getPort(remoteHost);
-            int finalI = i;
-            new Thread(() -> {
-                writers[finalI - 1] = connectToHost(remoteHost, remotePort, latch);
-                remoteHosts.add(remoteHost); // add the remote host to the list
-            }).start();
+        // connect to every remote host, the transport keeps retrying until each one is reachable
+        for (int i = 0; i < hosts.length; i++) {
+            if (i == processIndex) {
+                continue;
+            }
+            String remoteHost = membership.hosts[i];
+            int remotePort = membership.ports[i];
+            transport.connect(i, new InetSocketAddress(remoteHost, remotePort), latch::countDown);
         }
 
         try {
@@ -114,145 +240,401 @@ public class Node {
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
+        if (dissemination.pulls()) {
+            startPulling();
+        }
+        if (wal != null) {
+            // what was still queued when the node stopped never left, so the logged messages go out again
+            for (int j = 0; j < hosts.length; j++) {
+                if (j != processIndex) {
+                    resend(j);
+                }
+            }
+        }
 
-        // broadcast 100 messages to all of the remote hosts
-        for (int i = 1; i <= 100; i++) {
+        // broadcast 100 messages to all of the remote hosts, a restarted node carries on after its last one.
+        // with groups each message goes to the next of the node's own groups in turn instead
+        List<String> ownGroups = multicast == null ? null : multicast.groupsOf(processIndex);
+        int last = ownGroups != null && ownGroups.isEmpty() ? 0 : 100;
+        int sent = ownGroups == null ? vectorClock[processIndex] : multicastsSent;
+        for (int i = sent + 1; i <= last; i++) {
             try {
                 Thread.sleep(random.nextInt(10)); // Sleep for 1-10 milliseconds
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
-            vectorClock[processIndex]++;
-
-            for (int j = 0; j < writers.length; j++) {
-                PrintWriter writer = writers[j];
-                String host = remoteHosts.get(j); // Get the host for this writer
+            awaitCredit();
+            if (ownGroups == null) {
+                broadcast(i);
+            } else {
+                multicast(ownGroups.get((i - 1) % ownGroups.size()));
+            }
+        }
 
-                // MESSAGE FORMAT: "Message <i> from <host> with vector clock <vectorClock>"
-                String message = "Message " + i + " from " + localHost + " with vector clock " + Arrays.toString(vectorClock);
-                writer.println(message);
-                System.out.println("Message " + i + " sent to " + host);
+        // wait for all messages to be delivered, the last delivery wakes this thread up
+        awaitDelivered(multicast == null ? 100 * (hosts.length - 1) : multicast.expected(100));
+        System.out.println("All messages delivered");
+        System.out.println("Number of messages received: " + numMessagesDelivered());
+        System.out.println("Final vector clock: " + Arrays.toString(vectorClock));
 
-                // add the message to the buffer
-                messageBuffer.add(new Pair(message, vectorClock));
+        // the last deliveries are acked so the other processes can forget what they sent
+        lock.lock();
+        try {
+            if (multicast == null) {
+                acknowledge();
             }
+            System.out.println("Sent messages not yet stable: " + stability.unstable() + ", forgotten on overflow: "
+                    + stability.overflows());
+        } finally {
+            lock.unlock();
+        }
+        metrics.close();
+        log.close();
+        if (wal != null) {
+            wal.close();
+        }
+    }
 
-            System.out.println("Vector clock: " + Arrays.toString(vectorClock));
+    // ticks the local clock and sends message number sequence to every remote host
+    public void broadcast(int sequence) {
+        lock.lock();
+        try {
+            sendBroadcast(sequence);
+        } finally {
+            lock.unlock();
         }
+    }
 
-        // wait for all messages to be delivered
-        while(numMessagesDelivered < 100 * (hosts.length - 1)) {
+    private void sendBroadcast(int sequence) {
+        // with --buffer-overflow=block the broadcast waits until the oldest message it sent is stable
+        while (stability.mustWait()) {
             try {
-                Thread.sleep(1000);
+                stabilized.await();
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
         }
+        vectorClock[processIndex]++;
+
+        // with full clocks the message is encoded once and the same frame is copied into every host's send buffer,
+        // with metrics on it carries the send time so receivers can measure how long delivery took
+        Message message = new Message(Message.BROADCAST, processIndex, sequence, vectorClock,
+                metrics.enabled() ? Metrics.timestamp() : null);
+        messagesSent.add(sendToAll(message));
+        stability.add(message);
+        if (wal != null) {
+            wal.append(message);
+        }
+
+        log.log(EventLog.DEBUG, LogEvents.CLOCK, vectorClock, -1, 0, 0);
+    }
+
+    // sends the next multicast to the other members of the group only. it is counted in the matrix clock rather than
+    // the vector clock, which with groups holds the deliveries from each process
+    public void multicast(String group) {
+        lock.lock();
         try {
-            Thread.sleep(1000); // Sleep for 1 second to ensure all messages are delivered
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            int sequence = ++multicastsSent;
+            Message message = new Message(Message.MULTICAST, processIndex, sequence, multicast.send(group),
+                    metrics.enabled() ? Metrics.timestamp() : null);
+            ByteBuffer frame = null;
+            if (!compressClocks) {
+                frame = ByteBuffer.allocate(wireFormat.maxFrameSize(message));
+                wireFormat.encode(message, frame);
+                frame.flip();
+            }
+            for (int member : multicast.members(group)) {
+                if (member == processIndex) {
+                    continue;
+                }
+                if (compressClocks) {
+                    message.clockDelta = multicast.delta(member);
+                    transport.send(member, message);
+                } else {
+                    transport.send(member, frame);
+                }
+                messagesSent.increment();
+                log.log(EventLog.DEBUG, LogEvents.SENT, (int[]) null, member, sequence, 0);
+            }
+        } finally {
+            lock.unlock();
         }
-        System.out.println("All messages delivered");
-        System.out.println("Number of messages received: " + numMessagesDelivered);
-        System.out.println("Final vector clock: " + Arrays.toString(vectorClock));
     }
 
-    private static int getPort(String host) {
-        return BASE_PORT + Math.abs(host.hashCode() % 10000);
+    // tells every remote host how much this process has delivered, so the messages they sent can become stable.
+    // an ack is not an event, it moves no clock and is never delivered
+    private void acknowledge() {
+        acksSent.add(sendToAll(new Message(Message.ACK, processIndex, ++acksSentCount, vectorClock, null)));
     }
 
-    // parses the vector clock from a received message
-    private static int[] parseVectorClock(String message) {
-        // use a regular expression to extract the vector clock from the message
-        Pattern pattern = Pattern.compile("vector clock \\[(.*)\\]");
-        Matcher matcher = pattern.matcher(message);
+    // pulls every interval on a thread of its own
+    private void startPulling() {
+        Thread puller = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(dissemination.pullInterval());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                pull();
+            }
+        }, "gossip");
+        puller.setDaemon(true);
+        puller.start();
+    }
 
-        if (matcher.find()) {
-            // extract the vector clock string
-            String vectorClockStr = matcher.group(1);
+    // sends a process every kept message it has not acked, each with its own whole clock, when either of them has
+    // restarted. the compressed clocks to it start over, a restarted process drops the changes queued for it before
+    // since it has nothing to apply them to
+    private void resend(int processIndex) {
+        lock.lock();
+        try {
+            for (Message message : stability.unacknowledged(processIndex)) {
+                transport.send(processIndex, message);
+            }
+            clockCompression.restart(processIndex);
+            if (multicast != null) {
+                multicast.restart(processIndex);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            // split the vector clock string into an array of strings
-            String[] vectorClockStrArray = vectorClockStr.split(", ");
+    // asks a random process for the messages this one has missed, and forgets the kept messages that have become
+    // stable since the last pull
+    public void pull() {
+        lock.lock();
+        try {
+            int target = dissemination.pullTarget();
+            if (target >= 0) {
+                sendTo(new int[]{target}, new Message(Message.PULL, processIndex, 0, vectorClock, null));
+            }
+            stability.pruneRetained();
+        } finally {
+            lock.unlock();
+        }
+    }
 
-            // convert the array of strings to an array of integers
-            int[] vectorClock = new int[vectorClockStrArray.length];
-            for (int i = 0; i < vectorClockStrArray.length; i++) {
-                vectorClock[i] = Integer.parseInt(vectorClockStrArray[i]);
+    // sends the message on its way to every remote host, itself or through the first hops of the dissemination.
+    // every message carries the local clock and so acks all deliveries so far, returns the number of copies written
+    private int sendToAll(Message message) {
+        System.arraycopy(vectorClock, 0, clockAtLastSend, 0, vectorClock.length);
+        return sendTo(dissemination.targets(processIndex), message);
+    }
+
+    // writes the message to each of the processes
+    private int sendTo(int[] targets, Message message) {
+        ByteBuffer frame = null;
+        if (compressClocks) {
+            clockCompression.sync(vectorClock);
+        } else {
+            frame = ByteBuffer.allocate(wireFormat.maxFrameSize(message));
+            wireFormat.encode(message, frame);
+            frame.flip();
+        }
+
+        for (int j : targets) {
+            if (compressClocks) {
+                // a compressed clock depends on what this host was sent last, so it is encoded per host,
+                // straight into that host's send buffer
+                message.clockDelta = clockCompression.delta(j);
+                transport.send(j, message);
+            } else {
+                transport.send(j, frame);
             }
+            log.log(EventLog.DEBUG, LogEvents.SENT, (int[]) null, j, message.sequence, 0);
+        }
+        return targets.length;
+    }
 
-            return vectorClock;
+    // builds the membership from --members or --local if given, otherwise from the host names in the arguments
+    private static Membership loadMembership(String[] args, Map<String, String> options) {
+        int basePort = Integer.parseInt(options.getOrDefault("base-port", String.valueOf(Membership.BASE_PORT)));
+        try {
+            if (options.containsKey("members") || options.containsKey("local")) {
+                if (!options.containsKey("id")) {
+                    System.out.println("The local node must be given with --id");
+                    return null;
+                }
+                int localId = Integer.parseInt(options.get("id"));
+                if (options.containsKey("members")) {
+                    return Membership.fromFile(options.get("members"), localId);
+                }
+                return Membership.local(Integer.parseInt(options.get("local")), basePort, localId);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Invalid membership: " + e.getMessage());
+            return null;
         }
 
-        return new int[0]; // return an empty array if the vector clock is not found in the message
+        // input validation
+        if (!validInputs(args)) {
+            return null;
+        }
+        return Membership.fromHosts(args, basePort);
     }
 
-    // method for handling message buffering and delivery to ensure causal ordering
-    private static synchronized void onMessageReceived(String message, int[] vectorClock) {
-        int[] receivedTimestamp = parseVectorClock(message); // parse the vector clock from the received message
-    
-        // check the values of the current vector clock against the received vector clock and update the current vector clock
-        for (int i = 0; i < vectorClock.length; i++) {
-            vectorClock[i] = Math.max(vectorClock[i], receivedTimestamp[i]);
+    // method for handling message buffering and delivery to ensure causal ordering, this is the transport's listener.
+    // messages from one link never arrive here concurrently, and a link only carries other senders' messages when
+    // they are relayed, which sends full clocks, so only the delivery itself needs the node locked
+    void onMessageReceived(int link, Message message) {
+        message.link = link;
+        messagesReceived.increment();
+        if (metrics.enabled()) {
+            message.receivedAt = System.nanoTime();
         }
-    
-        // add the message to the buffer in it's component parts
-        messageBuffer.add(new Pair(message, receivedTimestamp));
-    
-        // check for and deliver eligible messages
-        Iterator<Pair> iterator = messageBuffer.iterator();
-        while (iterator.hasNext()) {
-            Pair bufferedMessage = iterator.next();
-            if (isReadyForDelivery(bufferedMessage.message, receivedTimestamp, vectorClock)) {
-                System.out.println("Delivering: " + bufferedMessage.message);
-                iterator.remove();
+        if (message.type == Message.MULTICAST) {
+            // the message carried the sender's matrix clock, its delivery only depends on this node's column of it
+            if (!multicast.receive(message)) {
+                return; // changes sent to this process before it restarted
+            }
+        } else if (message.vectorClock == null) {
+            // the message only carried the entries that changed, rebuild the sender's full clock
+            message.vectorClock = clockCompression.rebuild(message.sender, message.clockDelta);
+            if (message.vectorClock == null) {
+                return; // changes sent to this process before it restarted, the sender sends what it needs again
             }
+        } else if (compressClocks) {
+            clockCompression.received(message.sender, message.vectorClock);
+        }
+        log.log(EventLog.DEBUG, LogEvents.RECEIVED, message, -1, 0, 0);
+
+        // the message is buffered with the other messages from its sender and delivered as soon as it is ready,
+        // along with any buffered messages that were waiting on it
+        lock.lock();
+        try {
+            // stability is only tracked for broadcasts, a multicast's column counts messages sent, not delivered
+            if (message.type != Message.MULTICAST && stability.observe(message.sender, message.vectorClock)) {
+                stabilized.signalAll();
+            }
+            if (message.type == Message.PULL) {
+                // the puller's clock says what it has delivered, it gets whatever kept message is past that
+                for (Message missing : stability.missing(message.vectorClock)) {
+                    transport.send(message.sender, missing);
+                }
+                return;
+            }
+            if (message.type == Message.ACK) {
+                if (dissemination.relays() && message.sequence > lastAck[message.sender]) {
+                    lastAck[message.sender] = message.sequence;
+                    sendTo(dissemination.targets(message.sender), message);
+                }
+                return;
+            }
+            causalDelivery.receive(message);
+            bufferDepth.record(causalDelivery.buffered());
+            if (multicast == null && stability.ackDue(vectorClock[message.sender] - clockAtLastSend[message.sender])) {
+                acknowledge();
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
-    private static boolean isReadyForDelivery(String message, int[] receivedTimestamp, int[] vectorClock) {
-        int senderIndex = getSenderIndex(message);
-        if (vectorClock[senderIndex] + 1 != receivedTimestamp[senderIndex]) {
-            return false;
+    public int processIndex() {
+        return processIndex;
+    }
+
+    // true when some remote host has no credit left, a broadcast now would be queued locally for it
+    public boolean wouldBlock() {
+        for (int j = 0; j < hosts.length; j++) {
+            if (j != processIndex && transport.wouldBlock(j)) {
+                return true;
+            }
         }
-        for (int i = 0; i < vectorClock.length; i++) {
-            if (i != senderIndex && vectorClock[i] < receivedTimestamp[i]) {
-                return false;
+        return false;
+    }
+
+    // the broadcast goes to every host, so rather than queue it behind a host that is falling behind, this blocks
+    // until every host has credit for it again
+    public void awaitCredit() {
+        lock.lock();
+        try {
+            if (wouldBlock()) {
+                sendsDeferred.increment();
+                while (wouldBlock()) {
+                    try {
+                        credited.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }
             }
+        } finally {
+            lock.unlock();
         }
-        return true;
     }
 
-    // MESSAGE FORMAT: "Message <i> from <host> with vector clock <vectorClock>"
-    private static int getSenderIndex(String message) {
-        String[] parts = message.split(" ");
-        String sender = parts[3];
-        for (int i = 0; i < hosts.length; i++) {
-            if (hosts[i].equals(sender)) {
-                return i;
+    // blocks until the node has delivered at least count messages
+    public void awaitDelivered(int count) {
+        lock.lock();
+        try {
+            while (numMessagesDelivered < count) {
+                try {
+                    delivered.await();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int numMessagesDelivered() {
+        lock.lock();
+        try {
+            return numMessagesDelivered;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // number of received messages still waiting for the messages they depend on
+    public int buffered() {
+        lock.lock();
+        try {
+            return causalDelivery.buffered();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int[] vectorClock() {
+        lock.lock();
+        try {
+            return vectorClock.clone();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // pulls the --name=value options out of the arguments into the map and returns the arguments that are left
+    static String[] parseOptions(String[] args, Map<String, String> options) {
+        List<String> remaining = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            } else {
+                remaining.add(arg);
             }
         }
-        System.out.println("Sender not found in hosts array for message: " + message);
-        return -1; // return -1 if the sender is not found in the hosts array
+        return remaining.toArray(new String[0]);
     }
 
     private static boolean validInputs(String[] args) {
-        // each process must have 4 arguments: a host name and 3 remote hosts
-        if (args.length != 4) {
-            System.out.println("Invalid number of arguments, must be 4");
+        // each process needs the local host name and at least one remote host, there is no upper limit
+        if (args.length < 2) {
+            System.out.println("Invalid number of arguments, must be at least 2");
             return false;
         }
     
         Set<String> machines = new HashSet<>();
-        // each host name must be in the format dcXX where XX is a number between 01 and 45 inclusive
+        // every host name must appear once, any resolvable name is accepted so clusters are not limited to dc01-dc45
         for (String arg : args) {
-            if (!arg.matches("dc0[1-9]") && !arg.matches("dc[1-3][0-9]") && !arg.matches("dc4[0-5]")) {
-                System.out.println("Invalid host name: " + arg + ", must be in the format dcXX where XX is a number between 01 and 45 inclusive");
-                return false;
-            }
-    
             if (!machines.add(arg)) {
-                System.out.println("Duplicate machine entry: " + arg + ", must have 4 unique machines");
+                System.out.println("Duplicate machine entry: " + arg + ", every machine must be unique");
                 return false;
             }
         }
@@ -260,20 +642,4 @@ public class Node {
         // otherwise, the inputs are valid
         return true;
     }
-}
-
-// Pair class to hold a message and its vector clock
-class Pair {
-    public String message;
-    public int[] vectorClock;
-
-    public Pair(String message, int[] vectorClock) {
-        this.message = message;
-        this.vectorClock = vectorClock;
-    }
-
-    @Override
-    public String toString() {
-        return message + " with vector clock " + Arrays.toString(vectorClock);
-    }
 }
\ No newline at end of file
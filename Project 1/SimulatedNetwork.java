@@ -0,0 +1,189 @@
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+// an in-memory network for running a whole cluster in one JVM. time is virtual and every event runs on the thread
+// that calls run, in order of its time and then of when it was scheduled, and all randomness comes from one seeded
+// generator, so the same seed always replays the same run no matter how many nodes there are
+//
+// a frame sent on a link first waits for the link to finish sending the frames before it, then takes its size over
+// the link's bandwidth to send and a sampled latency to arrive. frames on a link arrive in the order they were sent,
+// like over TCP, except that with a reorder probability a frame may overtake the frames still in flight before it
+class SimulatedNetwork {
+    // a latency distribution, sampled once per frame
+    interface Latency {
+        long sampleNanos(Random random);
+
+        // "constant:<ms>", "uniform:<minMs>:<maxMs>", "exponential:<meanMs>" or "normal:<meanMs>:<stddevMs>"
+        static Latency parse(String spec) {
+            String[] parts = spec.split(":");
+            try {
+                switch (parts[0]) {
+                    case "constant":
+                        long constant = nanos(parts[1]);
+                        return random -> constant;
+                    case "uniform":
+                        long min = nanos(parts[1]);
+                        long max = nanos(parts[2]);
+                        return random -> min + (long) (random.nextDouble() * (max - min));
+                    case "exponential":
+                        long mean = nanos(parts[1]);
+                        return random -> (long) (-mean * Math.log(1 - random.nextDouble()));
+                    case "normal":
+                        long average = nanos(parts[1]);
+                        long stddev = nanos(parts[2]);
+                        return random -> Math.max(0, average + (long) (random.nextGaussian() * stddev));
+                }
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                // falls through to the error below
+            }
+            throw new IllegalArgumentException("Invalid latency distribution: " + spec);
+        }
+    }
+
+    private final WireFormat wireFormat;
+    private final Random random;
+    private final Latency latency;
+    private final double nanosPerByte; // 0 for links with unlimited bandwidth
+    private final double reorder; // probability that a frame is not held behind the frames sent before it
+    private final Transport.Listener[] listeners;
+    private final long[][] linkFree; // when each link finishes sending the frames already on it
+    private final long[][] lastArrival; // when the last frame sent on each link arrives
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long now = 0;
+    private long scheduled = 0;
+    private long frames = 0;
+    private long bytes = 0;
+
+    public SimulatedNetwork(int numHosts, WireFormat wireFormat, long seed, Latency latency, double megabitsPerSecond,
+                            double reorder) {
+        this.wireFormat = wireFormat;
+        this.random = new Random(seed);
+        this.latency = latency;
+        this.nanosPerByte = megabitsPerSecond > 0 ? 8_000 / megabitsPerSecond : 0;
+        this.reorder = reorder;
+        this.listeners = new Transport.Listener[numHosts];
+        this.linkFree = new long[numHosts][numHosts];
+        this.lastArrival = new long[numHosts][numHosts];
+    }
+
+    // the transport of one node, frames sent through it are delivered to the listeners of the other endpoints
+    public Transport endpoint(int processIndex, Transport.Listener listener) {
+        listeners[processIndex] = listener;
+        return new Endpoint(processIndex);
+    }
+
+    // the generator behind every random choice of the run, the simulation uses it too so one seed covers everything
+    public Random random() {
+        return random;
+    }
+
+    // current virtual time in nanoseconds
+    public long now() {
+        return now;
+    }
+
+    public long frames() {
+        return frames;
+    }
+
+    public long bytes() {
+        return bytes;
+    }
+
+    // runs the task once the virtual clock has advanced by the delay
+    public void schedule(long delayNanos, Runnable task) {
+        events.add(new Event(now + delayNanos, scheduled++, task));
+    }
+
+    // runs events in order until there are none left, which is when every frame has arrived
+    public void run() {
+        Event event;
+        while ((event = events.poll()) != null) {
+            now = event.time;
+            event.task.run();
+        }
+    }
+
+    private static long nanos(String ms) {
+        return (long) (Double.parseDouble(ms) * 1_000_000);
+    }
+
+    private void transmit(int from, int to, byte[] frame) {
+        if (listeners[to] == null) {
+            throw new IllegalStateException("Process " + to + " has no endpoint on the simulated network");
+        }
+        frames++;
+        bytes += frame.length;
+
+        // the frame is sent once the link is free and arrives a sampled latency after it has been sent
+        long sent = Math.max(now, linkFree[from][to]) + (long) (frame.length * nanosPerByte);
+        linkFree[from][to] = sent;
+        long arrival = sent + latency.sampleNanos(random);
+        if (reorder == 0 || random.nextDouble() >= reorder) {
+            arrival = Math.max(arrival, lastArrival[from][to]); // held behind the frames before it
+        }
+        lastArrival[from][to] = Math.max(arrival, lastArrival[from][to]);
+
+        Transport.Listener listener = listeners[to];
+        schedule(arrival - now, () -> {
+            Message message = wireFormat.decode(ByteBuffer.wrap(frame));
+            listener.onMessage(from, message);
+        });
+    }
+
+    private static class Event implements Comparable<Event> {
+        final long time;
+        final long order; // ties are run in the order they were scheduled
+        final Runnable task;
+
+        Event(long time, long order, Runnable task) {
+            this.time = time;
+            this.order = order;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            return time != other.time ? Long.compare(time, other.time) : Long.compare(order, other.order);
+        }
+    }
+
+    // every endpoint is connected to every other one from the start, so there is nothing to listen on or connect to
+    private class Endpoint implements Transport {
+        private final int processIndex;
+
+        Endpoint(int processIndex) {
+            this.processIndex = processIndex;
+        }
+
+        @Override
+        public void listen(int port) {
+        }
+
+        @Override
+        public void connect(int processIndex, InetSocketAddress address, Runnable onConnected) {
+            schedule(0, onConnected);
+        }
+
+        @Override
+        public void send(int processIndex, ByteBuffer frame) {
+            byte[] copy = new byte[frame.remaining()];
+            frame.duplicate().get(copy);
+            transmit(this.processIndex, processIndex, copy);
+        }
+
+        @Override
+        public void send(int processIndex, Message message) {
+            ByteBuffer frame = ByteBuffer.allocate(wireFormat.maxFrameSize(message));
+            wireFormat.encode(message, frame);
+            transmit(this.processIndex, processIndex, Arrays.copyOf(frame.array(), frame.position()));
+        }
+
+        // links are modelled by their bandwidth and latency, a receiver never runs out of room
+        @Override
+        public boolean wouldBlock(int processIndex) {
+            return false;
+        }
+    }
+}
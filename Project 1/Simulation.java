@@ -0,0 +1,127 @@
+import java.util.*;
+import java.util.function.BooleanSupplier;
+
+// runs a whole cluster of nodes on a SimulatedNetwork in this JVM and reports how long messages took to be delivered
+// and how many were held back waiting for others. each node broadcasts its messages with the same 0-9ms gaps as a
+// real node, and the run is driven entirely by the seed, so a run can be repeated exactly
+public class Simulation {
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        Node.parseOptions(args, options);
+        int numNodes = Integer.parseInt(options.getOrDefault("nodes", "100"));
+        int numMessages = Integer.parseInt(options.getOrDefault("messages", "100"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        double bandwidth = Double.parseDouble(options.getOrDefault("bandwidth", "1000"));
+        double reorder = Double.parseDouble(options.getOrDefault("reorder", "0"));
+        SimulatedNetwork.Latency latency;
+        try {
+            latency = SimulatedNetwork.Latency.parse(options.getOrDefault("latency", "uniform:1:5"));
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Usage: java Simulation [--nodes=N] [--messages=N] [--seed=N] [--latency=distribution]"
+                    + " [--bandwidth=Mbit/s] [--reorder=probability] [--wire=binary|text] [--clock=compressed|full]");
+            return;
+        }
+        // latencies are measured in virtual time here, the wall clock metrics of a real node would be meaningless
+        options.remove("metrics");
+        options.put("log", "off"); // the report would drown in the lines of hundreds of nodes
+        options.put("buffer-overflow", "drop"); // a broadcast cannot wait here, the acks it waits for run on this thread
+        if (reorder > 0 && !options.getOrDefault("clock", "compressed").equals("full")) {
+            // a compressed clock is rebuilt from the previous message on the same link, so it needs the link in order
+            System.out.println("Reordering within a link needs full clocks, using --clock=full");
+            options.put("clock", "full");
+        }
+
+        if (!options.getOrDefault("dissemination", "direct").equals("direct")) {
+            // a relayed message reaches a node over a different link than the one its clock was compressed for
+            options.put("clock", "full");
+        }
+
+        String[] names = Membership.local(numNodes, Membership.BASE_PORT, 0).names;
+        SimulatedNetwork network = new SimulatedNetwork(numNodes, WireFormat.forName(options.getOrDefault("wire", "binary"), names),
+                seed, latency, bandwidth, reorder);
+        Random random = network.random();
+
+        // when each message was broadcast, and how long each copy of it took to be delivered
+        long[][] sentAt = new long[numNodes][numMessages + 1];
+        long[] latencies = new long[numNodes * (numNodes - 1) * numMessages];
+        int[] delivered = new int[1];
+        int[] maxBuffered = new int[numNodes];
+
+        Node[] nodes = new Node[numNodes];
+        for (int i = 0; i < numNodes; i++) {
+            Node node = new Node(Membership.local(numNodes, Membership.BASE_PORT, i), options,
+                    message -> latencies[delivered[0]++] = network.now() - sentAt[message.sender][message.sequence]);
+            int index = i;
+            node.useTransport(network.endpoint(i, (link, message) -> {
+                node.onMessageReceived(link, message);
+                maxBuffered[index] = Math.max(maxBuffered[index], node.buffered());
+            }));
+            nodes[i] = node;
+        }
+
+        // every node broadcasts its messages with a random gap before each one
+        for (Node node : nodes) {
+            scheduleBroadcast(network, random, node, 1, numMessages, sentAt);
+        }
+        if (options.getOrDefault("dissemination", "direct").equals("gossip")) {
+            // gossip nodes pull what they missed every interval, until everything is delivered
+            long interval = Long.parseLong(options.getOrDefault("gossip-interval", "50")) * 1_000_000L;
+            for (Node node : nodes) {
+                schedulePull(network, node, interval, () -> delivered[0] < latencies.length);
+            }
+        }
+
+        long start = System.nanoTime();
+        network.run();
+        long elapsed = System.nanoTime() - start;
+
+        boolean complete = delivered[0] == latencies.length;
+        for (Node node : nodes) {
+            for (int entry : node.vectorClock()) {
+                complete &= entry == numMessages;
+            }
+        }
+        Arrays.sort(latencies, 0, delivered[0]);
+        System.out.println(complete ? "All messages delivered" : "Messages were lost or delivered out of order");
+        System.out.println("Nodes: " + numNodes + ", messages per node: " + numMessages + ", seed: " + seed);
+        System.out.println("Number of messages delivered: " + delivered[0] + " of " + latencies.length);
+        System.out.println("Frames sent: " + network.frames() + ", bytes sent: " + network.bytes());
+        System.out.printf("Simulated time: %.1f ms, run time: %.1f ms%n", network.now() / 1e6, elapsed / 1e6);
+        if (delivered[0] > 0) {
+            System.out.printf("Delivery latency (ms): p50 %.3f, p90 %.3f, p99 %.3f, max %.3f%n",
+                    percentile(latencies, delivered[0], 0.50), percentile(latencies, delivered[0], 0.90),
+                    percentile(latencies, delivered[0], 0.99), latencies[delivered[0] - 1] / 1e6);
+        }
+        System.out.printf("Largest delivery buffer: %d messages, average per node %.1f%n",
+                Arrays.stream(maxBuffered).max().orElse(0), Arrays.stream(maxBuffered).average().orElse(0));
+    }
+
+    // broadcasts message number sequence after a 0-9ms gap and then schedules the next one
+    private static void scheduleBroadcast(SimulatedNetwork network, Random random, Node node, int sequence,
+                                          int numMessages, long[][] sentAt) {
+        if (sequence > numMessages) {
+            return;
+        }
+        network.schedule(random.nextInt(10) * 1_000_000L, () -> {
+            sentAt[node.processIndex()][sequence] = network.now();
+            node.broadcast(sequence);
+            scheduleBroadcast(network, random, node, sequence + 1, numMessages, sentAt);
+        });
+    }
+
+    // pulls for the node every interval for as long as the run is still going
+    private static void schedulePull(SimulatedNetwork network, Node node, long interval, BooleanSupplier running) {
+        network.schedule(interval, () -> {
+            if (running.getAsBoolean()) {
+                node.pull();
+                schedulePull(network, node, interval, running);
+            }
+        });
+    }
+
+    // latency in milliseconds that the given fraction of the sorted latencies are at or below
+    private static double percentile(long[] sorted, int count, double fraction) {
+        return sorted[Math.min(count - 1, (int) Math.ceil(fraction * count) - 1)] / 1e6;
+    }
+}
@@ -0,0 +1,102 @@
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// the original human readable line format, slower than the binary one but useful for debugging with plain tools
+// MESSAGE FORMAT: "Message <i> from <host> with vector clock <vectorClock>", acks start with "Ack", multicasts with
+// "Multicast" and pulls with "Pull" instead of "Message"
+class TextFormat implements WireFormat {
+    private static final Pattern VECTOR_CLOCK = Pattern.compile("vector clock \\[(.*)\\]");
+    private final String[] hosts;
+
+    public TextFormat(String[] hosts) {
+        this.hosts = hosts;
+    }
+
+    // formats a message as the readable line, also used for console output regardless of the wire format
+    public String format(Message message) {
+        String kind = message.type == Message.ACK ? "Ack " : message.type == Message.MULTICAST ? "Multicast "
+                : message.type == Message.PULL ? "Pull " : "Message ";
+        return kind + message.sequence + " from " + hosts[message.sender] + " with vector clock " + Arrays.toString(message.vectorClock);
+    }
+
+    @Override
+    public void encode(Message message, ByteBuffer out) {
+        byte[] line = format(message).getBytes(StandardCharsets.UTF_8);
+        if (out.remaining() < line.length + 1) {
+            throw new BufferOverflowException();
+        }
+        out.put(line).put((byte) '\n');
+    }
+
+    @Override
+    public Message decode(ByteBuffer in) {
+        // look for the end of the line, if there is none yet then the message is still incomplete
+        int end = -1;
+        for (int i = in.position(); i < in.limit(); i++) {
+            if (in.get(i) == '\n') {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[end - in.position()];
+        in.get(bytes);
+        in.get(); // skip the newline
+        String line = new String(bytes, StandardCharsets.UTF_8).trim();
+
+        String[] parts = line.split(" ");
+        int sequence = Integer.parseInt(parts[1]);
+        byte type = parts[0].equals("Ack") ? Message.ACK : parts[0].equals("Multicast") ? Message.MULTICAST
+                : parts[0].equals("Pull") ? Message.PULL : Message.BROADCAST;
+        return new Message(type, getSenderIndex(line), sequence, parseVectorClock(line), null);
+    }
+
+    @Override
+    public int maxFrameSize(Message message) {
+        return 64 + hosts[message.sender].length() + 12 * message.vectorClock.length;
+    }
+
+    // parses the vector clock from a received message
+    public static int[] parseVectorClock(String message) {
+        // use the regular expression to extract the vector clock from the message
+        Matcher matcher = VECTOR_CLOCK.matcher(message);
+
+        if (matcher.find()) {
+            // extract the vector clock string
+            String vectorClockStr = matcher.group(1);
+
+            // split the vector clock string into an array of strings
+            String[] vectorClockStrArray = vectorClockStr.split(", ");
+
+            // convert the array of strings to an array of integers
+            int[] vectorClock = new int[vectorClockStrArray.length];
+            for (int i = 0; i < vectorClockStrArray.length; i++) {
+                vectorClock[i] = Integer.parseInt(vectorClockStrArray[i]);
+            }
+
+            return vectorClock;
+        }
+
+        return new int[0]; // return an empty array if the vector clock is not found in the message
+    }
+
+    // MESSAGE FORMAT: "Message <i> from <host> with vector clock <vectorClock>"
+    public int getSenderIndex(String message) {
+        String[] parts = message.split(" ");
+        String sender = parts[3];
+        for (int i = 0; i < hosts.length; i++) {
+            if (hosts[i].equals(sender)) {
+                return i;
+            }
+        }
+        System.out.println("Sender not found in hosts array for message: " + message);
+        return -1; // return -1 if the sender is not found in the hosts array
+    }
+}
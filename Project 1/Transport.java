@@ -0,0 +1,45 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+// how a node reaches the other nodes: NioTransport over real sockets, or an endpoint of a SimulatedNetwork when a
+// whole cluster runs inside one JVM. every implementation keeps the frames on each link in order unless it is told
+// to reorder them, compressed clocks depend on that
+interface Transport {
+    // receives every decoded message along with the link it came in on, which is the process at the other end of the
+    // connection. that is the message's sender unless a process in between relayed it
+    interface Listener {
+        void onMessage(int link, Message message);
+
+        // messages that came in on the link and are still waiting to be handled, the transport grants the process at
+        // the other end less credit while there are many
+        default int backlog(int link) {
+            return 0;
+        }
+
+        // the process at the other end of the link has restarted and lost what was sent to it before, called once
+        // the link to it is up again and before anything queued for it is written
+        default void restarted(int link) {
+        }
+
+        // the process at the other end of the link has granted more credit, a sender that wouldBlock held back may
+        // try again
+        default void credited(int link) {
+        }
+    }
+
+    // starts accepting connections from the other nodes on the port
+    void listen(int port) throws IOException;
+
+    // connects to a remote process, retrying until it is reachable, and runs onConnected once the link is up
+    void connect(int processIndex, InetSocketAddress address, Runnable onConnected);
+
+    // sends an already encoded frame without changing the caller's buffer position, so one frame can go to many processes
+    void send(int processIndex, ByteBuffer frame);
+
+    // encodes the message for the one process, for frames that differ per process
+    void send(int processIndex, Message message);
+
+    // true when the process cannot take another frame right now, a send still succeeds but is only queued locally
+    boolean wouldBlock(int processIndex);
+}
@@ -0,0 +1,124 @@
+import java.util.Arrays;
+
+// vector clock compression in the style of Singhal-Kshemkalyani: a message to a peer only carries the clock entries
+// that changed since the last message to that peer, and the receiver rebuilds the full clock from the last one it
+// rebuilt for the same sender. this relies on each link delivering frames in order, which TCP does
+//
+// the first message to a peer carries the whole clock, and so does the first one after the peer has restarted, since
+// a restarted peer has lost the clock the changes would apply to. a receiver drops changes that come before it has a
+// whole clock from the sender, those were made for a run of the receiver before it restarted
+//
+// the sender keeps lastUpdate[k], the local tick at which entry k last changed, and lastSent[j], the tick of the last
+// send to peer j, so an entry goes to j when lastUpdate[k] > lastSent[j]. entries are also kept in a list ordered by
+// lastUpdate, so finding the changed entries only walks the entries that actually changed
+class ClockCompression {
+    private final int[] snapshot; // the clock as of the last sync, this is what gets sent
+    private final int[] lastUpdate;
+    private final int[] lastSent;
+    private final int[] newer; // recency list over entry indexes, most recently updated first
+    private final int[] older;
+    private int mostRecent = -1;
+    private int tick = 0;
+
+    private final int[][] lastReceived; // full clock last rebuilt for each sender, null until one arrives whole
+
+    public ClockCompression(int numHosts) {
+        snapshot = new int[numHosts];
+        lastUpdate = new int[numHosts];
+        lastSent = new int[numHosts];
+        newer = new int[numHosts];
+        older = new int[numHosts];
+        lastReceived = new int[numHosts][];
+        Arrays.fill(lastSent, -1); // nothing sent yet
+        for (int i = 0; i < numHosts; i++) {
+            newer[i] = -1;
+            older[i] = -1;
+        }
+    }
+
+    // takes a consistent copy of the clock and stamps every entry that changed since the previous sync,
+    // returns the copy, which is only valid until the next sync
+    public int[] sync(int[] vectorClock) {
+        boolean changed = false;
+        for (int k = 0; k < vectorClock.length; k++) {
+            int value = vectorClock[k];
+            if (value != snapshot[k]) {
+                if (!changed) {
+                    tick++;
+                    changed = true;
+                }
+                snapshot[k] = value;
+                lastUpdate[k] = tick;
+                moveToFront(k);
+            }
+        }
+        return snapshot;
+    }
+
+    // entries that changed since the last message to the peer, as index/value pairs, and marks them as sent. null
+    // when the peer has no clock to apply them to, the message then has to carry the whole clock
+    public int[] delta(int peer) {
+        if (lastSent[peer] < 0) {
+            lastSent[peer] = tick;
+            return null;
+        }
+        int count = 0;
+        for (int k = mostRecent; k >= 0 && lastUpdate[k] > lastSent[peer]; k = older[k]) {
+            count++;
+        }
+
+        int[] delta = new int[count * 2];
+        int i = 0;
+        for (int k = mostRecent; i < delta.length; k = older[k]) {
+            delta[i++] = k;
+            delta[i++] = snapshot[k];
+        }
+        lastSent[peer] = tick;
+        return delta;
+    }
+
+    // the peer restarted and lost what it was sent, the next message to it carries the whole clock again
+    public void restart(int peer) {
+        lastSent[peer] = -1;
+    }
+
+    // rebuilds the full clock of a message from the sender's previous clock and the entries it carried, or returns
+    // null when there is no previous clock to apply them to. each sender's frames arrive on a single connection in
+    // order so this needs no locking across senders
+    public int[] rebuild(int sender, int[] delta) {
+        if (lastReceived[sender] == null) {
+            return null;
+        }
+        int[] vectorClock = lastReceived[sender].clone();
+        for (int i = 0; i < delta.length; i += 2) {
+            vectorClock[delta[i]] = delta[i + 1];
+        }
+        lastReceived[sender] = vectorClock;
+        return vectorClock;
+    }
+
+    // a whole clock from the sender, the changes in its next messages apply to this one
+    public void received(int sender, int[] vectorClock) {
+        lastReceived[sender] = vectorClock.clone();
+    }
+
+    private void moveToFront(int k) {
+        if (mostRecent == k) {
+            return;
+        }
+        // unlink the entry from where it currently is
+        if (newer[k] >= 0) {
+            older[newer[k]] = older[k];
+        }
+        if (older[k] >= 0) {
+            newer[older[k]] = newer[k];
+        }
+        // and put it at the head of the list
+        newer[k] = -1;
+        older[k] = mostRecent;
+        if (mostRecent >= 0) {
+            newer[mostRecent] = k;
+        }
+        mostRecent = k;
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// hands decoded messages from the I/O threads to an executor, so an I/O thread goes straight back to its sockets
+// instead of waiting on the node. messages from one link are still handled one at a time and in the order they
+// arrived, since compressed clocks and the protocols rely on each link being in order, but different links are
+// handled in parallel up to the point where the node has to lock its state
+//
+// THREADS OPTION: "io" handles each message on the I/O thread that read it, "virtual" runs each link's backlog on
+// a virtual thread (Java 21 or later, otherwise platform threads are used), "platform" uses a pool of platform threads
+class Dispatcher implements Transport.Listener {
+    private final Transport.Listener listener;
+    private final Executor executor;
+    private final Link[] links;
+
+    private Dispatcher(Executor executor, int numHosts, Transport.Listener listener) {
+        this.listener = listener;
+        this.executor = executor;
+        this.links = new Link[numHosts];
+        for (int i = 0; i < numHosts; i++) {
+            links[i] = new Link(i);
+        }
+    }
+
+    // the listener the transport should call for the --threads option
+    static Transport.Listener forName(String name, int numHosts, Transport.Listener listener) {
+        switch (name) {
+            case "io":
+                return listener;
+            case "virtual":
+                return new Dispatcher(virtualThreads(), numHosts, listener);
+            case "platform":
+                return new Dispatcher(platformThreads(), numHosts, listener);
+            default:
+                System.out.println("Unknown thread mode: " + name + ", handling messages on the I/O threads");
+                return listener;
+        }
+    }
+
+    @Override
+    public void onMessage(int link, Message message) {
+        links[link].add(message);
+    }
+
+    @Override
+    public int backlog(int link) {
+        return links[link].waiting.get() + listener.backlog(link);
+    }
+
+    @Override
+    public void restarted(int link) {
+        listener.restarted(link);
+    }
+
+    @Override
+    public void credited(int link) {
+        listener.credited(link);
+    }
+
+    // looked up by reflection so the code still compiles and runs on Java versions before virtual threads
+    private static Executor virtualThreads() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads need Java 21 or later, using platform threads");
+            return platformThreads();
+        }
+    }
+
+    private static Executor platformThreads() {
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+            Thread thread = new Thread(task, "dispatch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // the messages of one link waiting to be handled, at most one task drains them at a time
+    private class Link implements Runnable {
+        private final int index;
+        private final Queue<Message> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicInteger waiting = new AtomicInteger(); // the queue's size, which it cannot tell cheaply
+
+        Link(int index) {
+            this.index = index;
+        }
+
+        void add(Message message) {
+            waiting.incrementAndGet();
+            queue.add(message);
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Message message;
+                while ((message = queue.poll()) != null) {
+                    waiting.decrementAndGet();
+                    try {
+                        listener.onMessage(index, message);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace(); // one bad message must not stop the link's queue from draining
+                    }
+                }
+                scheduled.set(false);
+                // a message added after the queue was found empty but before the flag was cleared is picked up here
+                if (queue.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// the node's log of what it sends, receives and does. on the console every event is formatted and printed as it
+// happens, as it always was. with a file the event is instead copied as a fixed-size binary record into a ring buffer
+// and a background thread writes the records out in batches, so logging an event costs a few stores and no
+// formatting or allocation, and "java EventLog <file>" turns the records back into the same lines later
+//
+// LOG OPTIONS: --log=console|off|<file> picks where events go, console by default, with {id} in a file name replaced
+// by the node's index so the nodes of a local cluster get a file each. --log-level=info|debug picks which events,
+// debug (every message) by default, and events above the level are dropped before anything is done with them
+//
+// FILE FORMAT: int magic, int version, int record size, int number of hosts, each host name as modified UTF-8,
+// then the records. a record is the event time in microseconds since the epoch, the level, the event, the message
+// type, whether there is a message, then sender, sequence, peer and two event specific values, the length of the
+// clock and the clock itself padded to the number of hosts. the meaning of each event is defined by LogEvents
+class EventLog {
+    public static final int OFF = 0;
+    public static final int INFO = 1;
+    public static final int DEBUG = 2;
+
+    private static final int MAGIC = 0x45564C47; // "EVLG"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 36; // fixed fields of a record before the clock
+    private static final int BATCH_SIZE = 64 * 1024;
+
+    private final int level;
+    private final String[] hosts;
+    private final TextFormat textFormat;
+    private final boolean console;
+
+    // ring buffer of records, only used when logging to a file
+    private int recordSize;
+    private int capacity;
+    private ByteBuffer ring;
+    private AtomicLongArray published; // sequence + 1 of the record in each slot once it is completely written
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long written = 0; // records before this one have been copied out of the ring
+    private volatile boolean closed = false;
+    private FileChannel file;
+    private Thread writer;
+    private long wallBase; // wall clock in microseconds at nanoBase, so event times need no clock object
+    private long nanoBase;
+
+    private EventLog(int level, String[] hosts, boolean console) {
+        this.level = level;
+        this.hosts = hosts;
+        this.textFormat = new TextFormat(hosts);
+        this.console = console;
+    }
+
+    // the log configured by the --log, --log-level and --log-buffer options
+    static EventLog forOptions(Map<String, String> options, String[] hosts, int localIndex) {
+        String target = options.getOrDefault("log", "console");
+        String levelName = options.getOrDefault("log-level", "debug");
+        int level = target.equals("off") ? OFF : levelName.equals("info") ? INFO : DEBUG;
+        if (!levelName.equals("info") && !levelName.equals("debug")) {
+            System.out.println("Unknown log level: " + levelName + ", using debug");
+        }
+        if (target.equals("console") || level == OFF) {
+            return new EventLog(level, hosts, true);
+        }
+        EventLog log = new EventLog(level, hosts, false);
+        try {
+            log.open(Paths.get(target.replace("{id}", String.valueOf(localIndex))), Integer.parseInt(options.getOrDefault("log-buffer", "16384")));
+        } catch (IOException e) {
+            System.out.println("Unable to write the log to " + target + ": " + e.getMessage() + ", logging to the console");
+            return new EventLog(level, hosts, true);
+        }
+        return log;
+    }
+
+    // logs an event about a message, its clock is the message's clock
+    public void log(int level, byte event, Message message, int peer, int a, int b) {
+        if (level <= this.level) {
+            append(level, event, message, message.vectorClock, peer, a, b);
+        }
+    }
+
+    // logs an event that is not about a single message, with the given clock if it has one
+    public void log(int level, byte event, int[] clock, int peer, int a, int b) {
+        if (level <= this.level) {
+            append(level, event, null, clock, peer, a, b);
+        }
+    }
+
+    // writes out every record logged so far and stops the writer
+    public void close() {
+        if (writer != null) {
+            closed = true;
+            LockSupport.unpark(writer);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void append(int level, byte event, Message message, int[] clock, int peer, int a, int b) {
+        if (console) {
+            System.out.println(LogEvents.describe(textFormat, hosts, event, message, clock, peer, a, b));
+            return;
+        }
+
+        // claim the next slot and wait for the writer if the ring has wrapped around to records it has not written
+        long sequence = claimed.getAndIncrement();
+        while (sequence - written >= capacity) {
+            if (closed) {
+                return; // the writer has stopped, nothing more can be logged
+            }
+            LockSupport.unpark(writer);
+            Thread.onSpinWait();
+        }
+        int slot = (int) (sequence & (capacity - 1));
+        int offset = slot * recordSize;
+        ring.putLong(offset, wallBase + (System.nanoTime() - nanoBase) / 1000);
+        ring.put(offset + 8, (byte) level);
+        ring.put(offset + 9, event);
+        ring.put(offset + 10, message == null ? 0 : message.type);
+        ring.put(offset + 11, (byte) (message == null ? 0 : 1));
+        ring.putInt(offset + 12, message == null ? -1 : message.sender);
+        ring.putInt(offset + 16, message == null ? 0 : message.sequence);
+        ring.putInt(offset + 20, peer);
+        ring.putInt(offset + 24, a);
+        ring.putInt(offset + 28, b);
+        int length = clock == null ? -1 : Math.min(clock.length, hosts.length);
+        ring.putInt(offset + 32, length);
+        for (int i = 0; i < length; i++) {
+            ring.putInt(offset + HEADER_SIZE + 4 * i, clock[i]);
+        }
+        published.set(slot, sequence + 1);
+    }
+
+    private void open(Path path, int records) throws IOException {
+        recordSize = HEADER_SIZE + 4 * hosts.length;
+        capacity = Integer.highestOneBit(Math.max(2, records - 1)) << 1; // a power of two so a slot is a mask away
+        ring = ByteBuffer.allocate(capacity * recordSize);
+        published = new AtomicLongArray(capacity);
+        Instant now = Instant.now();
+        nanoBase = System.nanoTime();
+        wallBase = now.getEpochSecond() * 1_000_000 + now.getNano() / 1000;
+
+        file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(header);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(recordSize);
+        out.writeInt(hosts.length);
+        for (String host : hosts) {
+            out.writeUTF(host);
+        }
+        file.write(ByteBuffer.wrap(header.toByteArray()));
+
+        writer = new Thread(this::drain, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // copies published records out of the ring in order and writes them in batches, checking every millisecond
+    private void drain() {
+        ByteBuffer batch = ByteBuffer.allocateDirect(Math.max(recordSize, BATCH_SIZE / recordSize * recordSize));
+        try {
+            while (true) {
+                boolean finishing = closed;
+                long next = written;
+                while (published.get((int) (next & (capacity - 1))) == next + 1) {
+                    if (batch.remaining() < recordSize) {
+                        write(batch);
+                    }
+                    int offset = (int) (next & (capacity - 1)) * recordSize;
+                    batch.put(ring.array(), offset, recordSize);
+                    next++;
+                    written = next;
+                }
+                write(batch);
+                if (finishing) {
+                    file.close();
+                    return;
+                }
+                LockSupport.parkNanos(1_000_000);
+            }
+        } catch (IOException e) {
+            System.out.println("Unable to write the log: " + e.getMessage());
+            closed = true;
+        }
+    }
+
+    private void write(ByteBuffer batch) throws IOException {
+        batch.flip();
+        while (batch.hasRemaining()) {
+            file.write(batch);
+        }
+        batch.clear();
+    }
+
+    // prints the readable lines of a binary log, with the time of each event in front of it if asked to
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java EventLog <file> [--timestamps]");
+            return;
+        }
+        boolean timestamps = args.length > 1 && args[1].equals("--timestamps");
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0])))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                System.out.println(args[0] + " is not an event log");
+                return;
+            }
+            int recordSize = in.readInt();
+            String[] hosts = new String[in.readInt()];
+            for (int i = 0; i < hosts.length; i++) {
+                hosts[i] = in.readUTF();
+            }
+            TextFormat textFormat = new TextFormat(hosts);
+
+            byte[] record = new byte[recordSize];
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            while (true) {
+                try {
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    return;
+                }
+                long time = buffer.getLong(0);
+                byte event = buffer.get(9);
+                int length = buffer.getInt(32);
+                int[] clock = length < 0 ? null : new int[length];
+                for (int i = 0; i < length; i++) {
+                    clock[i] = buffer.getInt(HEADER_SIZE + 4 * i);
+                }
+                Message message = buffer.get(11) == 0 ? null
+                        : new Message(buffer.get(10), buffer.getInt(12), buffer.getInt(16), clock, null);
+                String line = LogEvents.describe(textFormat, hosts, event, message, clock,
+                        buffer.getInt(20), buffer.getInt(24), buffer.getInt(28));
+                System.out.println(timestamps ? Instant.ofEpochSecond(time / 1_000_000, time % 1_000_000 * 1000) + " " + line : line);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import java.util.*;
+
+// ISIS total order: every receiver of a broadcast proposes a timestamp larger than any it has proposed or seen agreed,
+// and the sender takes the largest proposal as the agreed timestamp. messages wait ordered by their timestamp, proposed
+// or agreed, and then the process that proposed it, and the first one is delivered once its timestamp is agreed: an
+// agreed timestamp is never below the proposal it replaces in that order, so nothing can still end up in front of it
+class IsisBroadcast implements TotalOrderBroadcast {
+    private final Owner owner;
+    private final int localIndex;
+    private final int numHosts;
+    private int highest = 0; // highest timestamp proposed or agreed here
+    // messages not yet delivered as {timestamp, proposer, sender, number, agreed}
+    private final TreeSet<int[]> waiting = new TreeSet<>((x, y) -> {
+        for (int i = 0; i < 4; i++) {
+            if (x[i] != y[i]) {
+                return Integer.compare(x[i], y[i]);
+            }
+        }
+        return 0;
+    });
+    private final Map<Long, int[]> byId = new HashMap<>();
+    private final Map<Long, byte[]> payloads = new HashMap<>(); // of the messages not yet delivered
+    private final Map<Integer, int[]> proposals = new HashMap<>(); // own messages as {proposals, timestamp, proposer}
+
+    public IsisBroadcast(Owner owner, int localIndex, int numHosts) {
+        this.owner = owner;
+        this.localIndex = localIndex;
+        this.numHosts = numHosts;
+    }
+
+    @Override
+    public void broadcast(int number, byte[] payload) {
+        int[] args = TotalOrderBroadcast.dataArgs(number, payload);
+        for (int i = 0; i < numHosts; i++) {
+            if (i != localIndex) {
+                owner.send(i, Message.DATA, args);
+            }
+        }
+        payloads.put(id(localIndex, number), payload);
+        int timestamp = propose(localIndex, number);
+        proposals.put(number, new int[]{0, 0, 0});
+        onProposal(number, timestamp, localIndex);
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        int[] args = message.args;
+        switch (message.type) {
+            case Message.DATA:
+                payloads.put(id(message.sender, args[0]), TotalOrderBroadcast.payloadOf(args));
+                owner.send(message.sender, Message.PROPOSE, args[0], propose(message.sender, args[0]));
+                break;
+            case Message.PROPOSE:
+                onProposal(args[0], args[1], message.sender);
+                break;
+            case Message.AGREED:
+                agree(message.sender, args[0], args[1], args[2]);
+                break;
+            default:
+                break;
+        }
+    }
+
+    // queues a message under a new proposed timestamp and returns the timestamp
+    private int propose(int sender, int number) {
+        int[] entry = {++highest, localIndex, sender, number, 0};
+        waiting.add(entry);
+        byId.put(id(sender, number), entry);
+        return highest;
+    }
+
+    private void onProposal(int number, int timestamp, int proposer) {
+        int[] proposal = proposals.get(number);
+        proposal[0]++;
+        if (proposal[0] == 1 || timestamp > proposal[1] || (timestamp == proposal[1] && proposer > proposal[2])) {
+            proposal[1] = timestamp;
+            proposal[2] = proposer;
+        }
+        if (proposal[0] == numHosts) {
+            proposals.remove(number);
+            for (int i = 0; i < numHosts; i++) {
+                if (i != localIndex) {
+                    owner.send(i, Message.AGREED, number, proposal[1], proposal[2]);
+                }
+            }
+            agree(localIndex, number, proposal[1], proposal[2]);
+        }
+    }
+
+    private void agree(int sender, int number, int timestamp, int proposer) {
+        int[] entry = byId.remove(id(sender, number));
+        waiting.remove(entry);
+        entry[0] = timestamp;
+        entry[1] = proposer;
+        entry[4] = 1;
+        waiting.add(entry);
+        highest = Math.max(highest, timestamp);
+
+        while (!waiting.isEmpty() && waiting.first()[4] == 1) {
+            int[] next = waiting.pollFirst();
+            owner.deliver(next[2], next[3], payloads.remove(id(next[2], next[3])));
+        }
+    }
+
+    private static long id(int sender, int number) {
+        return (long) sender << 32 | (number & 0xffffffffL);
+    }
+}
@@ -0,0 +1,64 @@
+import java.util.Arrays;
+
+// the events a node logs and the line each one reads as, the same lines the node has always printed
+class LogEvents {
+    public static final byte SENT = 1;
+    public static final byte REQUEST_SENT = 2; // a = the request number, peer = where it was sent
+    public static final byte CLOCK = 3; // the vector clock after a request broadcast
+    public static final byte DELIVERED = 4;
+    public static final byte RECEIVED_REQUEST = 5;
+    public static final byte DEFERRED_HELD = 6;
+    public static final byte DEFERRED = 7; // peer = the requesting process
+    public static final byte REPLYING = 8; // peer = the requesting process
+    public static final byte RECEIVED_REPLY = 9;
+    public static final byte UNKNOWN = 10;
+    public static final byte ENTERED = 11; // a = entries so far, b = deferred requests
+    public static final byte REPLIED = 12; // a = replies sent, b = deferred requests left
+    public static final byte RECEIVED = 13; // any other protocol message
+    public static final byte INQUIRING = 14; // peer = the process holding the vote
+    public static final byte YIELDING = 15; // peer = the process the vote goes back to
+    public static final byte TOKEN_PASSED = 16; // peer = the next holder
+    public static final byte BROADCAST_DELIVERED = 17; // peer = the sender, a = its number for the message
+
+    static String describe(TextFormat textFormat, String[] hosts, byte event, Message message, int[] clock, int peer,
+                           int a, int b) {
+        switch (event) {
+            case SENT:
+                return "Sent message: " + textFormat.format(message);
+            case REQUEST_SENT:
+                return "Request " + a + " sent to " + hosts[peer];
+            case CLOCK:
+                return "Vector clock: " + Arrays.toString(clock);
+            case DELIVERED:
+                return "Delivering: " + textFormat.format(message);
+            case RECEIVED_REQUEST:
+                return "Received request: " + textFormat.format(message);
+            case DEFERRED_HELD:
+                return "Deferring message as state is HELD: " + textFormat.format(message);
+            case DEFERRED:
+                return "Deferring request from " + hosts[peer] + " until critical section access is granted";
+            case REPLYING:
+                return "Request has higher priority, sending reply to " + hosts[peer] + "'s request";
+            case RECEIVED_REPLY:
+                return "Received reply: " + textFormat.format(message);
+            case UNKNOWN:
+                return "Unknown message type in message: " + textFormat.format(message);
+            case ENTERED:
+                return "Currently in the critical section, num times: " + a + ", sending replies to " + b + " requests now";
+            case REPLIED:
+                return a + " replies sent to deferred requests, current number of deferred requests: " + b;
+            case RECEIVED:
+                return "Received message: " + textFormat.format(message);
+            case INQUIRING:
+                return "An older request is waiting, asking " + hosts[peer] + " to yield its vote";
+            case YIELDING:
+                return "Yielding the vote back to " + hosts[peer];
+            case TOKEN_PASSED:
+                return "Passing the token to " + hosts[peer];
+            case BROADCAST_DELIVERED:
+                return "Delivered broadcast " + a + " from " + hosts[peer] + " in total order";
+            default:
+                return "Unknown event " + event;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Maekawa mutual exclusion: every process has a quorum of about sqrt(N) processes and any two quorums share at least
+// one process. a process asks its quorum and enters once every member has voted for it, each member votes for one
+// request at a time so two processes can never both collect their votes. members that already voted queue the
+// request and release it to the next one in (timestamp, index) order when the holder leaves
+//
+// votes given out in different orders by different members can deadlock, so a member that queues a request older
+// than the one it voted for asks the holder to yield (INQUIRE), and tells a request that has to wait behind an older
+// one that it has failed (FAILED). a process that has failed somewhere, or already yielded, hands the vote back
+// (YIELD) and the member votes for the oldest request it knows. the oldest request in the system is never told it
+// failed, so it always collects its votes
+//
+// QUORUM OPTION: --quorum=grid places the processes row by row on a square grid and a quorum is the process's row
+// and column, which works for any N. --quorum=plane uses the lines of a finite projective plane of order q, which
+// gives quorums of q+1 or q+2 for N = q*q+q+1 with q prime, other sizes fall back to the grid
+class Maekawa implements MutualExclusion {
+    private final Context node;
+    private final int localIndex;
+    private final int[] quorum;
+    private final EventLog log;
+    private final LongAdder deferrals;
+    private final LongAdder yields;
+
+    // the requesting side
+    private State state = State.IDLE;
+    private int requestTimestamp;
+    private final boolean[] vote; // members whose vote is held for the current request
+    private int votes = 0;
+    private final boolean[] failedAt; // members that told the current request it has to wait
+    private int failures = 0;
+    private final boolean[] inquiredBy; // members waiting for an answer to their inquiry
+    private boolean yielded = false;
+
+    // the voting side, requests are ordered like in Ricart-Agrawala
+    private int votedFor = -1;
+    private int votedTimestamp;
+    private boolean inquired = false;
+    private final PriorityQueue<int[]> waiting = new PriorityQueue<>((x, y) ->
+            x[0] != y[0] ? Integer.compare(x[0], y[0]) : Integer.compare(x[1], y[1])); // {timestamp, index, failed}
+
+    public Maekawa(Context node, int localIndex, int numHosts, String quorumType, EventLog log, Metrics metrics) {
+        this.node = node;
+        this.localIndex = localIndex;
+        this.quorum = quorum(localIndex, numHosts, quorumType);
+        this.log = log;
+        this.deferrals = metrics.counter("requestsDeferred");
+        this.yields = metrics.counter("votesYielded");
+        this.vote = new boolean[numHosts];
+        this.failedAt = new boolean[numHosts];
+        this.inquiredBy = new boolean[numHosts];
+    }
+
+    // the quorum of the process for the --quorum type, the same for every resource
+    static int[] quorum(int index, int numHosts, String quorumType) {
+        return quorumType.equals("plane") ? planeQuorum(index, numHosts) : gridQuorum(index, numHosts);
+    }
+
+    @Override
+    public void request() {
+        state = State.WANTED;
+        requestTimestamp = node.timestamp();
+        for (int member : quorum) {
+            send(member, Message.REQUEST, requestTimestamp);
+        }
+    }
+
+    @Override
+    public void release() {
+        state = State.IDLE;
+        Arrays.fill(vote, false);
+        votes = 0;
+        Arrays.fill(failedAt, false);
+        failures = 0;
+        Arrays.fill(inquiredBy, false);
+        yielded = false;
+        int numReleased = 0;
+        for (int member : quorum) {
+            send(member, Message.RELEASE, requestTimestamp);
+            numReleased++;
+        }
+        log.log(EventLog.INFO, LogEvents.REPLIED, (int[]) null, -1, numReleased, waiting.size());
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        handle(message.sender, message.type, message.args.length > 0 ? message.args[0] : 0, message);
+    }
+
+    @Override
+    public int waiting() {
+        return waiting.size();
+    }
+
+    // messages to the process itself are handled right away rather than going through the transport
+    private void send(int processIndex, byte type, int timestamp) {
+        if (processIndex == localIndex) {
+            handle(localIndex, type, timestamp, null);
+        } else {
+            node.send(processIndex, type, timestamp);
+        }
+    }
+
+    private void handle(int sender, byte type, int timestamp, Message message) {
+        switch (type) {
+            case Message.REQUEST:
+                logReceived(LogEvents.RECEIVED_REQUEST, message);
+                onRequest(sender, timestamp);
+                break;
+            case Message.REPLY:
+                logReceived(LogEvents.RECEIVED_REPLY, message);
+                onVote(sender, timestamp);
+                break;
+            case Message.RELEASE:
+                logReceived(LogEvents.RECEIVED, message);
+                if (votedFor == sender) {
+                    votedFor = -1;
+                    voteForNext();
+                }
+                break;
+            case Message.INQUIRE:
+                logReceived(LogEvents.RECEIVED, message);
+                // an inquiry about a request that is already over, or a vote already handed back, needs no answer
+                if (state == State.WANTED && timestamp == requestTimestamp && vote[sender]) {
+                    inquiredBy[sender] = true;
+                    if (failures > 0 || yielded) {
+                        yieldVotes();
+                    }
+                }
+                break;
+            case Message.YIELD:
+                logReceived(LogEvents.RECEIVED, message);
+                if (votedFor == sender && votedTimestamp == timestamp) {
+                    waiting.add(new int[]{timestamp, sender, 0});
+                    votedFor = -1;
+                    voteForNext();
+                }
+                break;
+            case Message.FAILED:
+                logReceived(LogEvents.RECEIVED, message);
+                if (state == State.WANTED && timestamp == requestTimestamp && !failedAt[sender]) {
+                    failedAt[sender] = true;
+                    failures++;
+                    yieldVotes(); // this request cannot go first, so the votes asked about are better used elsewhere
+                }
+                break;
+            default:
+                log.log(EventLog.INFO, LogEvents.UNKNOWN, message, -1, 0, 0);
+        }
+    }
+
+    private void logReceived(byte event, Message message) {
+        if (message != null) {
+            log.log(EventLog.DEBUG, event, message, -1, 0, 0);
+        }
+    }
+
+    private void onRequest(int sender, int timestamp) {
+        if (votedFor < 0) {
+            grant(sender, timestamp);
+            return;
+        }
+        int[] request = {timestamp, sender, 0};
+        waiting.add(request);
+        deferrals.increment();
+        log.log(EventLog.INFO, LogEvents.DEFERRED, (int[]) null, sender, 0, 0);
+        if (before(timestamp, sender, votedTimestamp, votedFor) && before(request, waiting.peek())) {
+            // older than the request that has the vote and every other one waiting, those now have to wait behind it
+            for (int[] other : waiting) {
+                if (other != request) {
+                    fail(other);
+                }
+            }
+            // and ask for the vote back, once
+            if (!inquired) {
+                inquired = true;
+                log.log(EventLog.INFO, LogEvents.INQUIRING, (int[]) null, votedFor, 0, 0);
+                send(votedFor, Message.INQUIRE, votedTimestamp);
+            }
+        } else {
+            fail(request);
+        }
+    }
+
+    private void onVote(int sender, int timestamp) {
+        if (state != State.WANTED || timestamp != requestTimestamp || vote[sender]) {
+            return;
+        }
+        vote[sender] = true;
+        votes++;
+        if (failedAt[sender]) {
+            failedAt[sender] = false; // the member that had turned the request down has come round
+            failures--;
+        }
+        if (votes == quorum.length) {
+            Arrays.fill(inquiredBy, false);
+            state = State.HELD;
+            node.criticalSection();
+        }
+    }
+
+    // hands back every vote that was asked about, the members give them to older requests first
+    private void yieldVotes() {
+        for (int member : quorum) {
+            if (inquiredBy[member] && vote[member]) {
+                inquiredBy[member] = false;
+                vote[member] = false;
+                votes--;
+                yielded = true;
+                yields.increment();
+                log.log(EventLog.INFO, LogEvents.YIELDING, (int[]) null, member, 0, 0);
+                send(member, Message.YIELD, requestTimestamp);
+            }
+        }
+    }
+
+    // votes for the oldest waiting request, and tells the others that they have to wait behind it
+    private void voteForNext() {
+        inquired = false;
+        int[] next = waiting.poll();
+        if (next == null) {
+            return;
+        }
+        grant(next[1], next[0]);
+        for (int[] request : waiting) {
+            fail(request);
+        }
+    }
+
+    private void grant(int processIndex, int timestamp) {
+        votedFor = processIndex;
+        votedTimestamp = timestamp;
+        log.log(EventLog.INFO, LogEvents.REPLYING, (int[]) null, processIndex, 0, 0);
+        send(processIndex, Message.REPLY, timestamp);
+    }
+
+    // each waiting request is told once that it failed
+    private void fail(int[] request) {
+        if (request[2] == 0) {
+            request[2] = 1;
+            send(request[1], Message.FAILED, request[0]);
+        }
+    }
+
+    private static boolean before(int timestamp, int index, int otherTimestamp, int otherIndex) {
+        return timestamp < otherTimestamp || (timestamp == otherTimestamp && index < otherIndex);
+    }
+
+    private static boolean before(int[] request, int[] other) {
+        return request == other || before(request[0], request[1], other[0], other[1]);
+    }
+
+    // the process's row and column on a grid of ceil(sqrt(N)) columns. the last row may be short, two processes then
+    // still share the cell at one's row and the other's column, because at most one of those two cells is missing
+    static int[] gridQuorum(int index, int numHosts) {
+        int columns = (int) Math.ceil(Math.sqrt(numHosts));
+        int row = index / columns;
+        int column = index % columns;
+        TreeSet<Integer> members = new TreeSet<>();
+        for (int i = 0; i < numHosts; i++) {
+            if (i / columns == row || i % columns == column) {
+                members.add(i);
+            }
+        }
+        return members.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // the points of the projective plane over GF(q) are numbered in a fixed order, process i is point i and its
+    // quorum is the line whose coordinates are the point's own, plus the process itself. any two lines meet, so any
+    // two quorums do
+    static int[] planeQuorum(int index, int numHosts) {
+        int q = 1;
+        while (q * q + q + 1 < numHosts) {
+            q++;
+        }
+        if (q * q + q + 1 != numHosts || !isPrime(q)) {
+            System.out.println("No projective plane for " + numHosts + " processes, using the grid");
+            return gridQuorum(index, numHosts);
+        }
+
+        // normalised coordinates: (1, y, z), (0, 1, z) and (0, 0, 1)
+        int[][] points = new int[numHosts][];
+        int n = 0;
+        for (int y = 0; y < q; y++) {
+            for (int z = 0; z < q; z++) {
+                points[n++] = new int[]{1, y, z};
+            }
+        }
+        for (int z = 0; z < q; z++) {
+            points[n++] = new int[]{0, 1, z};
+        }
+        points[n] = new int[]{0, 0, 1};
+
+        int[] line = points[index];
+        TreeSet<Integer> members = new TreeSet<>();
+        members.add(index);
+        for (int i = 0; i < numHosts; i++) {
+            int[] point = points[i];
+            if ((line[0] * point[0] + line[1] * point[1] + line[2] * point[2]) % q == 0) {
+                members.add(i);
+            }
+        }
+        return members.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static boolean isPrime(int q) {
+        if (q < 2) {
+            return false;
+        }
+        for (int d = 2; d * d <= q; d++) {
+            if (q % d == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
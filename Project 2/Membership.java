@@ -0,0 +1,100 @@
+import java.io.*;
+import java.util.*;
+
+// the id, host and port of every node in the cluster. nodes are indexed in order of id and that index is the node's
+// position in the vector clock, so every process has to load the same membership
+// MEMBERSHIP FILE FORMAT: one "<id> <host> <port>" line per node, blank lines and lines starting with # are skipped
+class Membership {
+    public static final int BASE_PORT = 50000;
+
+    public final String[] names; // unique name of each node, the host name or host:port when hosts are shared
+    public final String[] hosts;
+    public final int[] ports;
+    public final int localIndex;
+
+    private Membership(String[] hosts, int[] ports, int localIndex) {
+        this.hosts = hosts;
+        this.ports = ports;
+        this.localIndex = localIndex;
+
+        // host names alone are enough to tell the nodes apart unless several of them share a machine
+        boolean sharedHosts = new HashSet<>(Arrays.asList(hosts)).size() < hosts.length;
+        names = new String[hosts.length];
+        for (int i = 0; i < hosts.length; i++) {
+            names[i] = sharedHosts ? hosts[i] + ":" + ports[i] : hosts[i];
+        }
+    }
+
+    public int size() {
+        return hosts.length;
+    }
+
+    // loads the membership file, the local node is the one with the given id
+    public static Membership fromFile(String path, int localId) throws IOException {
+        TreeMap<Integer, String[]> nodes = new TreeMap<>();
+        Set<String> addresses = new HashSet<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                if (parts.length != 3) {
+                    throw new IllegalArgumentException("Invalid membership entry: " + line + ", must be <id> <host> <port>");
+                }
+                int id = Integer.parseInt(parts[0]);
+                if (nodes.put(id, parts) != null) {
+                    throw new IllegalArgumentException("Duplicate node id " + id + " in " + path);
+                }
+                if (!addresses.add(parts[1] + ":" + parts[2])) {
+                    throw new IllegalArgumentException("Duplicate address " + parts[1] + ":" + parts[2] + " in " + path);
+                }
+            }
+        }
+        if (!nodes.containsKey(localId)) {
+            throw new IllegalArgumentException("Node id " + localId + " is not in " + path);
+        }
+
+        String[] hosts = new String[nodes.size()];
+        int[] ports = new int[nodes.size()];
+        int localIndex = 0;
+        int i = 0;
+        for (Map.Entry<Integer, String[]> node : nodes.entrySet()) {
+            hosts[i] = node.getValue()[1];
+            ports[i] = Integer.parseInt(node.getValue()[2]);
+            if (node.getKey() == localId) {
+                localIndex = i;
+            }
+            i++;
+        }
+        return new Membership(hosts, ports, localIndex);
+    }
+
+    // a cluster of nodes on this machine, node i listens on basePort + i
+    public static Membership local(int numNodes, int basePort, int localId) {
+        if (localId < 0 || localId >= numNodes) {
+            throw new IllegalArgumentException("Node id " + localId + " is not in a local cluster of " + numNodes + " nodes");
+        }
+        String[] hosts = new String[numNodes];
+        int[] ports = new int[numNodes];
+        for (int i = 0; i < numNodes; i++) {
+            hosts[i] = "127.0.0.1";
+            ports[i] = basePort + i;
+        }
+        return new Membership(hosts, ports, localId);
+    }
+
+    // the original command line form, the first host is the local one and the hosts are sorted to get their index,
+    // each host's port is the base port plus its index so no two nodes can end up on the same port
+    public static Membership fromHosts(String[] args, int basePort) {
+        String[] hosts = args.clone();
+        Arrays.sort(hosts);
+        int[] ports = new int[hosts.length];
+        for (int i = 0; i < hosts.length; i++) {
+            ports[i] = basePort + i;
+        }
+        return new Membership(hosts, ports, Arrays.asList(hosts).indexOf(args[0]));
+    }
+}
@@ -0,0 +1,127 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Message class to hold the fields of a single frame, independently of the wire format it arrived in
+class Message {
+    // message types, the values are written as-is by the binary wire format
+    public static final byte REQUEST = 1;
+    public static final byte REPLY = 2;
+    // Maekawa: leaving the critical section, asking for a vote back, handing it back, and being told to wait
+    public static final byte RELEASE = 3;
+    public static final byte INQUIRE = 4;
+    public static final byte YIELD = 5;
+    public static final byte FAILED = 6;
+    // Suzuki-Kasami: the token, carrying the last request served for every process and the queue
+    public static final byte TOKEN = 7;
+    // total order broadcast: an application message, its position from the sequencer, and ISIS timestamps
+    public static final byte DATA = 8;
+    public static final byte SEQUENCE = 9;
+    public static final byte PROPOSE = 10;
+    public static final byte AGREED = 11;
+    // a process is through with its own requests and broadcasts, everything it sent before this is all it needed
+    public static final byte DONE = 12;
+
+    public byte type;
+    public int sender; // index of the sending process in the sorted hosts array
+    public int sequence; // per-sender message number
+    public int[] vectorClock;
+    public int[] clockDelta; // changed clock entries as index/value pairs when the clock is sent compressed
+    public byte[] payload; // optional application data, null when there is none
+    public int[] args; // values that go with the type, like a request's timestamp, sent packed in the payload
+
+    public Message(byte type, int sender, int sequence, int[] vectorClock, byte[] payload) {
+        this.type = type;
+        this.sender = sender;
+        this.sequence = sequence;
+        this.vectorClock = vectorClock;
+        this.payload = payload;
+    }
+
+    // name of the message type as it appears in the text format
+    public static String typeName(byte type) {
+        switch (type) {
+            case REQUEST:
+                return "REQUEST";
+            case REPLY:
+                return "REPLY";
+            case RELEASE:
+                return "RELEASE";
+            case INQUIRE:
+                return "INQUIRE";
+            case YIELD:
+                return "YIELD";
+            case FAILED:
+                return "FAILED";
+            case TOKEN:
+                return "TOKEN";
+            case DATA:
+                return "DATA";
+            case SEQUENCE:
+                return "SEQUENCE";
+            case PROPOSE:
+                return "PROPOSE";
+            case AGREED:
+                return "AGREED";
+            case DONE:
+                return "DONE";
+            default:
+                return "UNKNOWN";
+        }
+    }
+
+    // packs protocol values into a payload, as varints so small values take a byte each
+    public static byte[] pack(int[] values) {
+        ByteBuffer out = ByteBuffer.allocate(5 * values.length);
+        for (int value : values) {
+            BinaryFormat.putVarint(out, value);
+        }
+        byte[] payload = new byte[out.position()];
+        out.flip().get(payload);
+        return payload;
+    }
+
+    // the values packed into a payload, none when there is no payload
+    public static int[] unpack(byte[] payload) {
+        if (payload == null) {
+            return new int[0];
+        }
+        ByteBuffer in = ByteBuffer.wrap(payload);
+        int[] values = new int[payload.length];
+        int count = 0;
+        while (in.hasRemaining()) {
+            values[count++] = BinaryFormat.getVarint(in);
+        }
+        return Arrays.copyOf(values, count);
+    }
+
+    public static byte typeOf(String name) {
+        switch (name) {
+            case "REQUEST":
+                return REQUEST;
+            case "REPLY":
+                return REPLY;
+            case "RELEASE":
+                return RELEASE;
+            case "INQUIRE":
+                return INQUIRE;
+            case "YIELD":
+                return YIELD;
+            case "FAILED":
+                return FAILED;
+            case "TOKEN":
+                return TOKEN;
+            case "DATA":
+                return DATA;
+            case "SEQUENCE":
+                return SEQUENCE;
+            case "PROPOSE":
+                return PROPOSE;
+            case "AGREED":
+                return AGREED;
+            case "DONE":
+                return DONE;
+            default:
+                return 0;
+        }
+    }
+}
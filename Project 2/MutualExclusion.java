@@ -0,0 +1,58 @@
+import java.util.Map;
+
+// a distributed mutual exclusion algorithm. the node asks its engine for the critical section, hands it every protocol
+// message it receives, and is called back through the context to send messages and once the section is granted.
+// engines are not thread safe, the node calls them and they call back with the node's lock held
+interface MutualExclusion {
+    enum State {
+        IDLE, WANTED, HELD
+    }
+
+    // the node side of an engine
+    interface Context {
+        // the node's logical time, requests are ordered by it and then by process index
+        int timestamp();
+
+        // sends a protocol message stamped with the node's clock, the args travel with it
+        void send(int processIndex, byte type, int... args);
+
+        // the critical section has been granted, the node runs it and calls release before returning
+        void criticalSection();
+    }
+
+    // asks for the critical section, criticalSection is called on the context once it is granted, possibly right away
+    void request();
+
+    // asks for the critical section in shared mode, shared requests do not exclude each other where the algorithm
+    // supports it and are exclusive like any other request where it does not
+    default void requestShared() {
+        request();
+    }
+
+    // leaves the critical section and lets the processes waiting on it go ahead
+    void release();
+
+    // handles a protocol message from another process
+    void onMessage(Message message);
+
+    // number of requests from other processes waiting for this process to leave
+    int waiting();
+
+    // selects the engine from the --mutex option, --quorum picks Maekawa's quorums
+    static MutualExclusion forName(String name, Context context, int localIndex, int numHosts,
+                                   Map<String, String> options, EventLog log, Metrics metrics) {
+        switch (name) {
+            case "suzuki-kasami":
+                return new SuzukiKasami(context, localIndex, numHosts, log, metrics);
+            case "maekawa":
+                return new Maekawa(context, localIndex, numHosts, options.getOrDefault("quorum", "grid"), log, metrics);
+            case "roucairol-carvalho":
+                return new RicartAgrawala(context, localIndex, numHosts, true, log, metrics);
+            case "ricart-agrawala":
+                return new RicartAgrawala(context, localIndex, numHosts, false, log, metrics);
+            default:
+                System.out.println("Unknown mutual exclusion algorithm: " + name + ", using ricart-agrawala");
+                return new RicartAgrawala(context, localIndex, numHosts, false, log, metrics);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// a separate lock for every named resource, all over the same connections. each resource has an engine of its own
+// that is created the first time the resource is used, and with more than one resource every protocol message
+// carries the resource id as its first argument so it reaches the right engine. requests for different resources
+// never wait for each other
+//
+// LOCKS OPTION: --locks=K spreads the requests over resources 0 to K-1, every process has to use the same K
+class NamedLocks {
+    // the node side, like MutualExclusion.Context but told which resource was granted
+    interface Owner {
+        int timestamp();
+
+        void send(int processIndex, byte type, int... args);
+
+        void criticalSection(int resource);
+    }
+
+    private final String algorithm;
+    private final Owner owner;
+    private final int localIndex;
+    private final int numHosts;
+    private final boolean keyed; // a single lock leaves the messages as they are
+    private final Map<String, String> options;
+    private final EventLog log;
+    private final Metrics metrics;
+    private final Map<Integer, MutualExclusion> engines = new ConcurrentHashMap<>();
+
+    public NamedLocks(String algorithm, Owner owner, int localIndex, int numHosts, int numLocks,
+                      Map<String, String> options, EventLog log, Metrics metrics) {
+        this.algorithm = algorithm;
+        this.owner = owner;
+        this.localIndex = localIndex;
+        this.numHosts = numHosts;
+        this.keyed = numLocks > 1;
+        this.options = options;
+        this.log = log;
+        this.metrics = metrics;
+    }
+
+    // the engine of a resource, created on first use
+    public MutualExclusion engine(int resource) {
+        return engines.computeIfAbsent(resource, this::newEngine);
+    }
+
+    // strips the resource id off a protocol message and hands it to that resource's engine
+    public void onMessage(Message message) {
+        int resource = 0;
+        if (keyed) {
+            resource = message.args[0];
+            message.args = Arrays.copyOfRange(message.args, 1, message.args.length);
+        }
+        engine(resource).onMessage(message);
+    }
+
+    private MutualExclusion newEngine(int resource) {
+        return MutualExclusion.forName(algorithm, new MutualExclusion.Context() {
+            @Override
+            public int timestamp() {
+                return owner.timestamp();
+            }
+
+            @Override
+            public void send(int processIndex, byte type, int... args) {
+                if (keyed) {
+                    int[] keyedArgs = new int[args.length + 1];
+                    keyedArgs[0] = resource;
+                    System.arraycopy(args, 0, keyedArgs, 1, args.length);
+                    args = keyedArgs;
+                }
+                owner.send(processIndex, type, args);
+            }
+
+            @Override
+            public void criticalSection() {
+                owner.criticalSection(resource);
+            }
+        }, localIndex, numHosts, options, log, metrics);
+    }
+}
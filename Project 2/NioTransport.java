@@ -0,0 +1,729 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// selector based transport: one small fixed set of I/O threads services every connection, so the number of threads
+// stays the same no matter how many hosts are in the cluster. each connection reads into its own reusable buffer
+// and every complete frame is decoded and handed to the listener on the I/O thread that read it
+//
+// outgoing frames are appended to a per-peer buffer and written by the I/O thread, so a burst of frames queued while
+// a write is in progress goes out in a single write. a flush is requested as soon as a frame lands in an empty buffer,
+// or with a flush interval after that delay unless the buffer reaches the batch size first
+//
+// a link survives its connection. a new outgoing connection starts with a header naming the sender, and the receiver
+// answers on the same socket with the number of frames it has received from that sender so far, then repeats that
+// count every heartbeat interval and after every ACK_EVERY frames. the sender keeps each frame until it is counted,
+// resends the uncounted ones when it reconnects, and reconnects when the counts stop arriving, so frames go through
+// exactly once and in order across dropped connections. connection attempts back off exponentially from a few
+// milliseconds with random jitter, so a cluster comes up as fast as its nodes start listening
+//
+// anything that arrives from a process shows it is alive, its counts and the frames it sends on its own connection
+// alike, and a link is only reconnected once nothing at all has come from the process for several heartbeats. the
+// listener may run on the I/O threads, so the counts waiting on the socket are read before giving up on a link, a
+// thread that was busy in the listener has not had the chance to read them
+//
+// the counts also carry credit: the number of the last frame the receiver is willing to take, which is the count plus
+// the credit window less the frames its listener still has waiting from that link. the sender writes no frame past
+// that number, anything after it stays queued until more credit comes in, and wouldBlock tells the application when
+// a send would only be queued, with the listener told when more credit arrives so it can wait for it rather than
+// poll. a receiver that falls behind so slows its senders down instead of buffering without end
+//
+// HANDSHAKE: <magic:int32> <sender:int32> <incarnation:int32> from the connecting side, then <received:int32>
+// <credit:int32> counts back. the incarnation is random per transport, a receiver that sees a new one starts
+// counting that sender from 0, and a sender whose count goes back tells its listener the receiver restarted
+class NioTransport implements Transport {
+    private static final int RECEIVE_BUFFER_SIZE = 64 * 1024;
+    private static final int SEND_BUFFER_SIZE = 64 * 1024;
+    private static final long MIN_RECONNECT_DELAY_MS = 5;
+    private static final long MAX_RECONNECT_DELAY_MS = 1000;
+    private static final int MAGIC = 0x4E494F54; // "NIOT"
+    private static final int HEADER_SIZE = 12;
+    private static final int COUNT_SIZE = 8;
+    private static final int MISSED_HEARTBEATS = 10; // heartbeats a sender waits for before it reconnects
+
+    private final WireFormat wireFormat;
+    private final Listener listener;
+    private final IoLoop[] loops;
+    private final Connection[] outgoing; // outgoing connections indexed by process index
+    private final Connection[] incoming; // the current accepted connection from each process, touched by its I/O thread
+    private final int[] framesReceived; // frames received from each process, touched by its I/O thread
+    private final int[] incarnations; // the incarnation each count belongs to
+    private final int[] granted; // the last frame each process may send, credit once granted is never taken back
+    private final AtomicLongArray lastHeard; // System.nanoTime() of the last count or frame from each process
+    private final int localIndex;
+    private final int incarnation = ThreadLocalRandom.current().nextInt();
+    private final long flushIntervalMs; // 0 flushes as soon as a frame is queued
+    private final int batchSize; // bytes after which a flush is requested without waiting for the interval
+    private final long heartbeatMs;
+    private final int credits; // frames a process may send beyond what has been received from it
+    private final int countEvery; // frames received between counts, so credit is renewed well before it runs out
+    private int nextLoop = 0;
+
+    public NioTransport(WireFormat wireFormat, int localIndex, int numHosts, int ioThreads, long flushIntervalMs,
+                        int batchSize, long heartbeatMs, int credits, Listener listener) throws IOException {
+        this.wireFormat = wireFormat;
+        this.listener = listener;
+        this.localIndex = localIndex;
+        this.outgoing = new Connection[numHosts];
+        this.incoming = new Connection[numHosts];
+        this.framesReceived = new int[numHosts];
+        this.incarnations = new int[numHosts];
+        this.granted = new int[numHosts];
+        this.lastHeard = new AtomicLongArray(numHosts);
+        this.flushIntervalMs = flushIntervalMs;
+        this.batchSize = batchSize;
+        this.heartbeatMs = heartbeatMs;
+        this.credits = Math.max(1, credits);
+        this.countEvery = Math.max(1, Math.min(1024, this.credits / 4));
+        this.loops = new IoLoop[Math.max(1, ioThreads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop("io-" + i);
+            loops[i].start();
+        }
+    }
+
+    // starts accepting connections on the port, accepted connections are spread over the I/O threads
+    @Override
+    public void listen(int port) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        IoLoop loop = loops[0];
+        loop.execute(() -> loop.register(server, SelectionKey.OP_ACCEPT, null));
+    }
+
+    // connects to a remote process, retrying until it is reachable, and runs onConnected once the link is up
+    @Override
+    public void connect(int processIndex, InetSocketAddress address, Runnable onConnected) {
+        Connection connection = new Connection(processIndex, nextLoop(), true);
+        outgoing[processIndex] = connection;
+        connection.loop.execute(() -> {
+            connection.open(address, onConnected);
+            connection.watch();
+        });
+    }
+
+    // copies the remaining bytes of an encoded frame into the process's send buffer without changing the caller's
+    // buffer position, so one frame can be encoded once and sent to many processes
+    @Override
+    public void send(int processIndex, ByteBuffer frame) {
+        Connection connection = outgoing[processIndex];
+        int queued;
+        synchronized (connection) {
+            connection.reserve(frame.remaining());
+            connection.pending.put(frame.duplicate());
+            connection.frameSizes.add(frame.remaining());
+            queued = connection.pending.position();
+        }
+        connection.queued(queued, frame.remaining());
+    }
+
+    // encodes the message straight into the process's send buffer, for frames that differ per process
+    @Override
+    public void send(int processIndex, Message message) {
+        Connection connection = outgoing[processIndex];
+        int queued;
+        int frameSize;
+        synchronized (connection) {
+            connection.reserve(wireFormat.maxFrameSize(message));
+            int start = connection.pending.position();
+            wireFormat.encode(message, connection.pending);
+            queued = connection.pending.position();
+            frameSize = queued - start;
+            connection.frameSizes.add(frameSize);
+        }
+        connection.queued(queued, frameSize);
+    }
+
+    // true when the process has no credit left for another frame, a send now is queued here until it grants more
+    @Override
+    public boolean wouldBlock(int processIndex) {
+        Connection connection = outgoing[processIndex];
+        synchronized (connection) {
+            return connection.acknowledged + connection.frameSizes.size >= connection.credit;
+        }
+    }
+
+    // accepted connections from one process all live on the same I/O thread, so an old connection that is still
+    // being read can never race the new one over the frame count
+    private IoLoop loopFor(int processIndex) {
+        return loops[processIndex % loops.length];
+    }
+
+    private synchronized IoLoop nextLoop() {
+        IoLoop loop = loops[nextLoop];
+        nextLoop = (nextLoop + 1) % loops.length;
+        return loop;
+    }
+
+    // a single I/O thread with its own selector, other threads hand it work through the task queue
+    private class IoLoop extends Thread {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final PriorityQueue<Timer> timers = new PriorityQueue<>(); // only touched by this thread
+
+        IoLoop(String name) throws IOException {
+            super(name);
+            selector = Selector.open();
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        // runs the task on this thread after the delay, must be called from this thread
+        void schedule(long delayMs, Runnable task) {
+            timers.add(new Timer(System.nanoTime() + delayMs * 1_000_000, task));
+        }
+
+        SelectionKey register(SelectableChannel channel, int ops, Connection connection) {
+            try {
+                return channel.register(selector, ops, connection);
+            } catch (ClosedChannelException e) {
+                System.out.println("Tried to register a closed channel: " + e.getMessage());
+                return null;
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select(runTimers());
+
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        handle(key);
+                    }
+                    selector.selectedKeys().clear();
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // runs any timers that are due and returns how long the selector may block, 0 meaning indefinitely
+        private long runTimers() {
+            long now = System.nanoTime();
+            while (!timers.isEmpty() && timers.peek().deadline - now <= 0) {
+                timers.poll().task.run();
+            }
+            return timers.isEmpty() ? 0 : Math.max(1, (timers.peek().deadline - now) / 1_000_000);
+        }
+
+        private void handle(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (!key.isValid()) {
+                    return;
+                }
+                if (key.isAcceptable()) {
+                    accept((ServerSocketChannel) key.channel());
+                    return;
+                }
+                if (key.isConnectable()) {
+                    connection.finishConnect();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    connection.read();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+            } catch (Exception e) {
+                if (connection == null) {
+                    System.out.println("Exception caught when listening for a connection: " + e.getMessage());
+                    return;
+                }
+                System.out.println("Connection to process " + connection.processIndex + " failed: " + e.getMessage());
+                connection.close();
+            }
+        }
+
+        private void accept(ServerSocketChannel server) throws IOException {
+            SocketChannel channel;
+            while ((channel = server.accept()) != null) {
+                SocketChannel accepted = channel;
+                accepted.configureBlocking(false);
+                accepted.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Connection connection = new Connection(-1, this, false);
+                connection.attach(accepted); // only until the header says which process it is from
+            }
+        }
+    }
+
+    private static class Timer implements Comparable<Timer> {
+        final long deadline;
+        final Runnable task;
+
+        Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            return Long.signum(deadline - other.deadline);
+        }
+    }
+
+    // frame sizes in the order the frames were queued, so acknowledged frames can be dropped from the front
+    private static class IntQueue {
+        int[] values = new int[256];
+        int head = 0;
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                int[] larger = new int[values.length * 2];
+                for (int i = 0; i < size; i++) {
+                    larger[i] = values[(head + i) % values.length];
+                }
+                values = larger;
+                head = 0;
+            }
+            values[(head + size++) % values.length] = value;
+        }
+
+        int poll() {
+            int value = values[head];
+            head = (head + 1) % values.length;
+            size--;
+            return value;
+        }
+
+        int get(int index) {
+            return values[(head + index) % values.length];
+        }
+    }
+
+    // one socket channel with its reusable read buffer and the buffers of frames waiting to be written. an outgoing
+    // connection keeps its link to one process across reconnects, an accepted one is replaced by the next accepted
+    // connection from the same process
+    private class Connection {
+        int processIndex; // for accepted connections -1 until the header has been read
+        IoLoop loop;
+        final boolean outgoingLink;
+        final AtomicBoolean flushScheduled = new AtomicBoolean();
+        final AtomicBoolean delayedFlushScheduled = new AtomicBoolean();
+        ByteBuffer pending = ByteBuffer.allocate(SEND_BUFFER_SIZE); // frames appended by senders, guarded by this
+        ByteBuffer writing = ByteBuffer.allocate(SEND_BUFFER_SIZE).flip(); // owned by the I/O thread
+        final IntQueue frameSizes = new IntQueue(); // every frame not yet counted by the receiver, guarded by this
+        ByteBuffer unacked = ByteBuffer.allocate(SEND_BUFFER_SIZE); // written but not yet counted, I/O thread only
+        int acknowledged = 0; // frames the receiver has counted, guarded by this
+        volatile int credit = 0; // the last frame the receiver will take
+        // the rest is only touched by the I/O thread. byte offsets count every byte queued on the link so far
+        long acknowledgedBytes = 0; // offset of the first frame not yet counted
+        long sentBytes = 0; // offset of the next byte to write
+        int grantedFrames = 0; // frames the credit has been turned into bytes for
+        long grantedBytes = 0; // offset the credit allows writing up to
+        SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer readBuffer = ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
+        InetSocketAddress address;
+        Runnable onConnected;
+        boolean connected = false;
+        boolean resumed = false; // the receiver's count has arrived on this connection, frames may be written
+        boolean everConnected = false;
+        boolean reconnecting = false;
+        int attempts = 0;
+        int countedSinceAck = 0;
+
+        Connection(int processIndex, IoLoop loop, boolean outgoingLink) {
+            this.processIndex = processIndex;
+            this.loop = loop;
+            this.outgoingLink = outgoingLink;
+        }
+
+        void attach(SocketChannel channel) {
+            this.channel = channel;
+            this.connected = true;
+            this.key = loop.register(channel, SelectionKey.OP_READ, this);
+        }
+
+        // starts a non-blocking connect, failures are retried from the I/O thread after a delay
+        void open(InetSocketAddress address, Runnable onConnected) {
+            this.address = address;
+            this.onConnected = onConnected;
+            reconnecting = false;
+            readBuffer.clear(); // part of a count from the last connection would throw every later count off
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                key = loop.register(channel, SelectionKey.OP_CONNECT, this);
+                if (channel.connect(address)) {
+                    finishConnect();
+                }
+            } catch (IOException e) {
+                retry();
+            }
+        }
+
+        void finishConnect() {
+            try {
+                if (!channel.finishConnect()) {
+                    return;
+                }
+                // the header is the first thing on a new connection, a fresh socket always has room for it
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(localIndex).putInt(incarnation);
+                header.flip();
+                channel.write(header);
+                if (header.hasRemaining()) {
+                    throw new IOException("Could not write the connection header");
+                }
+            } catch (IOException e) {
+                retry();
+                return;
+            }
+            connected = true;
+            attempts = 0;
+            lastHeard.set(processIndex, System.nanoTime());
+            key.interestOps(SelectionKey.OP_READ); // the receiver's counts come back on the same connection
+            if (!everConnected) {
+                everConnected = true;
+                onConnected.run();
+            } else {
+                System.out.println("Reconnected to process " + processIndex);
+            }
+        }
+
+        // tries again after a random delay of up to twice the previous one, so nodes that all start at once do not
+        // all retry at the same moment
+        private void retry() {
+            closeChannel();
+            if (reconnecting) {
+                return;
+            }
+            reconnecting = true;
+            long ceiling = Math.min(MAX_RECONNECT_DELAY_MS, MIN_RECONNECT_DELAY_MS << Math.min(attempts++, 16));
+            long delay = ThreadLocalRandom.current().nextLong(MIN_RECONNECT_DELAY_MS, ceiling + 1);
+            loop.schedule(delay, () -> open(address, onConnected));
+        }
+
+        // reconnects when nothing has come from the receiver for several heartbeats, checked every heartbeat
+        void watch() {
+            if (connected && silent()) {
+                try {
+                    read(); // counts that arrived while this thread was busy elsewhere
+                } catch (IOException e) {
+                    close();
+                }
+                if (connected && silent()) {
+                    System.out.println("No heartbeat from process " + processIndex + ", reconnecting");
+                    close();
+                }
+            }
+            loop.schedule(heartbeatMs, this::watch);
+        }
+
+        private boolean silent() {
+            return System.nanoTime() - lastHeard.get(processIndex) > MISSED_HEARTBEATS * heartbeatMs * 1_000_000;
+        }
+
+        void read() throws IOException {
+            int bytesRead = channel.read(readBuffer);
+            if (bytesRead == -1) {
+                System.out.println("Client has closed the connection: " + channel.getRemoteAddress());
+                close();
+                return;
+            }
+
+            readBuffer.flip();
+            if (outgoingLink) {
+                readCounts();
+            } else if (processIndex < 0) {
+                readHeader();
+                return; // the frames after the header are read once the connection is on its process's thread
+            } else {
+                readFrames();
+            }
+            readBuffer.compact();
+            if (!readBuffer.hasRemaining()) {
+                // a single frame is larger than the buffer, grow it so the rest can be read
+                readBuffer = ByteBuffer.allocate(readBuffer.capacity() * 2).put(readBuffer.flip());
+            }
+        }
+
+        // decode every complete frame in the buffer and keep any partial frame for the next read
+        private void readFrames() {
+            Message message;
+            if (readBuffer.hasRemaining()) {
+                lastHeard.set(processIndex, System.nanoTime());
+            }
+            while ((message = wireFormat.decode(readBuffer)) != null) {
+                framesReceived[processIndex]++;
+                listener.onMessage(processIndex, message);
+                if (++countedSinceAck >= countEvery) {
+                    sendCount();
+                }
+            }
+        }
+
+        // an accepted connection starts with the sender's header, after which it moves to that sender's I/O thread
+        private void readHeader() throws IOException {
+            if (readBuffer.remaining() < HEADER_SIZE) {
+                readBuffer.compact();
+                return;
+            }
+            if (readBuffer.getInt() != MAGIC) {
+                throw new IOException("Not a node connection: " + channel.getRemoteAddress());
+            }
+            int sender = readBuffer.getInt();
+            int senderIncarnation = readBuffer.getInt();
+            readBuffer.compact();
+            IoLoop target = loopFor(sender);
+            if (target == loop) {
+                takeOver(sender, senderIncarnation);
+                return;
+            }
+            key.cancel();
+            target.execute(() -> {
+                loop = target;
+                key = loop.register(channel, SelectionKey.OP_READ, this);
+                takeOver(sender, senderIncarnation);
+            });
+        }
+
+        // becomes the connection from the sender, runs on the sender's I/O thread
+        private void takeOver(int sender, int senderIncarnation) {
+            processIndex = sender;
+            if (incoming[sender] != null && incoming[sender] != this) {
+                incoming[sender].close(); // the sender has given up on the old connection
+            }
+            incoming[sender] = this;
+            if (incarnations[sender] != senderIncarnation) {
+                incarnations[sender] = senderIncarnation; // a new process, whatever the old one sent is gone
+                framesReceived[sender] = 0;
+                granted[sender] = 0;
+            }
+            if (key == null) {
+                close();
+                return;
+            }
+            sendCount(); // tells the sender where to resume
+            heartbeat();
+            readBuffer.flip();
+            readFrames();
+            readBuffer.compact();
+        }
+
+        // the counts double as heartbeats, an idle connection still sends one every interval
+        private void heartbeat() {
+            if (!connected || incoming[processIndex] != this) {
+                return;
+            }
+            sendCount();
+            loop.schedule(heartbeatMs, this::heartbeat);
+        }
+
+        // the count and the credit that goes with it, the listener's backlog is read without its lock so a stale
+        // value only makes one grant a little too large or too small
+        private void sendCount() {
+            countedSinceAck = 0;
+            int received = framesReceived[processIndex];
+            granted[processIndex] = Math.max(granted[processIndex], received + credits - listener.backlog(processIndex));
+            synchronized (this) {
+                reserve(COUNT_SIZE);
+                pending.putInt(received).putInt(granted[processIndex]);
+            }
+            flush();
+        }
+
+        // the receiver's count of frames from this process: counted frames are dropped, and the first count on a new
+        // connection says where to resume, so everything written after it is written again
+        private void readCounts() {
+            boolean restarted = false;
+            boolean credited = false;
+            while (readBuffer.remaining() >= COUNT_SIZE) {
+                int received = readBuffer.getInt();
+                int limit = readBuffer.getInt();
+                lastHeard.set(processIndex, System.nanoTime());
+                int dropBytes = 0;
+                synchronized (this) {
+                    credited |= limit > credit;
+                    if (received < acknowledged) {
+                        System.out.println("Process " + processIndex + " restarted, frames sent before are lost");
+                        restarted = true;
+                        acknowledged = received; // frames are numbered from the new receiver's count from here on
+                        grantedFrames = received;
+                        grantedBytes = acknowledgedBytes;
+                        credit = limit;
+                    }
+                    for (; acknowledged < received; acknowledged++) {
+                        dropBytes += frameSizes.poll();
+                    }
+                    credit = Math.max(credit, limit);
+                }
+                acknowledgedBytes += dropBytes;
+                if (!resumed) {
+                    // the written part of the batch being written goes again, the rest of it follows
+                    unacked.flip().position(Math.min(dropBytes, unacked.limit()));
+                    ByteBuffer resend = ByteBuffer.allocate(Math.max(SEND_BUFFER_SIZE, unacked.remaining() + writing.remaining()));
+                    resend.put(unacked).put(writing).flip();
+                    writing = resend;
+                    unacked.clear();
+                    sentBytes = acknowledgedBytes;
+                    resumed = true;
+                } else {
+                    unacked.flip().position(dropBytes);
+                    unacked.compact();
+                }
+            }
+            if (restarted) {
+                listener.restarted(processIndex); // outside the lock, the listener may send
+            }
+            flush(); // the new credit may let queued frames go
+            if (credited) {
+                listener.credited(processIndex);
+            }
+        }
+
+        // turns credit into a byte offset, one frame at a time as the frames are queued
+        private void grant() {
+            synchronized (this) {
+                int end = Math.min(credit, acknowledged + frameSizes.size);
+                for (; grantedFrames < end; grantedFrames++) {
+                    grantedBytes += frameSizes.get(grantedFrames - acknowledged);
+                }
+            }
+        }
+
+        // makes room for a frame in the pending buffer, called with the connection locked
+        void reserve(int frameSize) {
+            if (pending.remaining() < frameSize) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + frameSize));
+                pending.flip();
+                larger.put(pending);
+                pending = larger;
+            }
+        }
+
+        // decides when the I/O thread should write after a frame of frameSize bytes brought the buffer to queued bytes
+        void queued(int queued, int frameSize) {
+            boolean wasEmpty = queued == frameSize;
+            if (queued >= batchSize || (wasEmpty && flushIntervalMs == 0)) {
+                requestFlush();
+            } else if (wasEmpty && delayedFlushScheduled.compareAndSet(false, true)) {
+                // let the batch build up for the flush interval before writing it
+                loop.execute(() -> loop.schedule(flushIntervalMs, () -> {
+                    delayedFlushScheduled.set(false);
+                    flush();
+                }));
+            }
+        }
+
+        void requestFlush() {
+            // only wake the I/O thread if it does not already have a flush on the way
+            if (flushScheduled.compareAndSet(false, true)) {
+                loop.execute(this::flush);
+            }
+        }
+
+        // writes everything queued so far, swapping in the pending buffer whenever the previous batch is done,
+        // and waits for OP_WRITE if the socket fills up. outgoing links keep what they wrote until it is counted
+        void flush() {
+            flushScheduled.set(false);
+            if (!connected || key == null || !key.isValid() || (outgoingLink && !resumed)) {
+                return; // anything queued is written once the connection is up
+            }
+            try {
+                while (true) {
+                    if (!writing.hasRemaining()) {
+                        synchronized (this) {
+                            if (pending.position() == 0) {
+                                break;
+                            }
+                            ByteBuffer batch = pending;
+                            pending = writing;
+                            pending.clear();
+                            writing = batch;
+                        }
+                        writing.flip();
+                    }
+                    int start = writing.position();
+                    if (outgoingLink) {
+                        // only as far as the receiver's credit goes, the rest waits for its next count
+                        grant();
+                        int limit = writing.limit();
+                        long allowed = grantedBytes - sentBytes;
+                        if (allowed <= 0) {
+                            break;
+                        }
+                        writing.limit((int) Math.min(limit, start + allowed));
+                        boolean full;
+                        try {
+                            channel.write(writing);
+                            full = writing.hasRemaining();
+                        } finally {
+                            // a failed write must not lose the part of the batch beyond the credit
+                            keep(writing.duplicate().position(start).limit(writing.position()));
+                            sentBytes += writing.position() - start;
+                            writing.limit(limit);
+                        }
+                        if (full) {
+                            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                            return;
+                        }
+                        continue;
+                    }
+                    channel.write(writing);
+                    if (writing.hasRemaining()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            } catch (IOException e) {
+                System.out.println("An error occurred while sending to process " + processIndex + ": " + e.getMessage());
+                close();
+            }
+        }
+
+        private void keep(ByteBuffer written) {
+            if (unacked.remaining() < written.remaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(unacked.capacity() * 2, unacked.position() + written.remaining()));
+                unacked.flip();
+                larger.put(unacked);
+                unacked = larger;
+            }
+            unacked.put(written);
+        }
+
+        // drops the connection, an outgoing link connects again and resumes where the receiver's count says
+        void close() {
+            connected = false;
+            resumed = false;
+            if (outgoingLink) {
+                retry();
+            } else {
+                closeChannel();
+            }
+        }
+
+        private void closeChannel() {
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -6,383 +6,530 @@
 
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Node {
-    private enum State {
-        IDLE, WANTED, HELD
-    }
-    private static final int BASE_PORT = 50000;
-    private static Queue<String> deferredRequests = new ConcurrentLinkedQueue<>();
     private static int numMessagesDelivered = 0;
-    private static State state = State.IDLE;
-    private static int repliesReceived = 0;
+    private static NamedLocks locks; // the algorithm for each resource, guarded by lock like the rest of the protocol state
+    private static int numLocks;
+    private static int readPercent; // share of the requests that only read and may hold the section together
+    private static boolean[] sharedRequest; // whether the outstanding request for each resource reads
     private static String localHost = "";
     private static int localHostIndex;
     private static int[] vectorClock;
+    // with --clock=lamport the single Lamport clock that messages carry instead of the vector clock, null otherwise.
+    // nothing in the mutual exclusion or total order protocols needs more than a scalar order, so this keeps the
+    // size and cost of every message independent of N. messages are dispatched as they arrive in every clock mode
+    private static int[] lamportClock;
     private static String[] hosts = new String[4];
-    private static PrintWriter[] writers;
+    private static NioTransport transport;
+    private static Membership membership;
     private static List<String> remoteHosts = new ArrayList<>();
-    private static boolean hasOutstandingRequest = false;
+    private static boolean[] hasOutstandingRequest; // for each resource
+    private static int outstandingRequests = 0;
     private static int criticalSectionExecutions = 0;
-    private static Queue<Pair> messageBuffer = new ConcurrentLinkedQueue<>();
-
-    // starts a server on the specified port
+    private static int requests;
+    private static Map<String, String> options = new HashMap<>();
+    private static WireFormat wireFormat;
+    private static EventLog log; // every message sent and received and every step of the protocol
+    private static ClockCompression clockCompression;
+    private static boolean compressClocks; // send only the clock entries that changed since the last message to a host
+    private static int messagesSent = 0;
+    private static int requestNumber = 0; // the local request being made, for the log
+    // guards the protocol state. a lock rather than synchronized, so a virtual thread that waits while holding it
+    // does not pin its carrier thread
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static final Condition requestDone = lock.newCondition(); // signalled when the critical section is left
+    private static final Condition allReceived = lock.newCondition(); // signalled when the last message arrives
+    private static int doneReceived = 0; // processes that have said they are through with their requests
+    private static Metrics metrics;
+    private static final LongAdder[] sentByType = new LongAdder[Byte.MAX_VALUE + 1]; // like requestSent, replySent
+    private static final LongAdder[] receivedByType = new LongAdder[Byte.MAX_VALUE + 1];
+    private static LongAdder entries;
+    private static LongAdder sharedEntries;
+    private static Histogram entryWait; // microseconds from sending a request to entering the critical section
+    private static Histogram messagesPerEntry; // messages sent since the previous entry, 0 when permissions are reused
+    private static long[] requestedAt; // System.nanoTime() when the outstanding request for each resource was sent
+    private static int messagesForRequest = 0;
+    private static TotalOrderBroadcast totalOrder;
+    private static int broadcasts; // messages each process broadcasts in total order
+    private static int broadcastWindow; // broadcasts a process may have in flight before it waits for its own to arrive
+    private static int broadcastsInFlight = 0;
+    private static int broadcastsDelivered = 0;
+    private static long[] broadcastSentAt; // System.nanoTime() when each local broadcast was made
+    private static long deliveryDigest = 0; // hash of the delivery order, the same on every process
+    private static final Condition broadcastDelivered = lock.newCondition();
+    private static LongAdder deliveredBroadcasts;
+    private static Histogram broadcastLatency; // microseconds from broadcasting a message to delivering it locally
+
+    // starts the transport and listens on the specified port, decoded messages are handed to onMessageReceived
     private static void startServer(int port) {
-        new Thread(() -> {
-            try (ServerSocket serverSocket = new ServerSocket(port)) {
-                while (true) {
-                    Socket clientSocket = serverSocket.accept(); // block until a client connects
-
-                    // create a new thread to handle the client
-                    new Thread(() -> {
-                        try {
-                            BufferedReader in = new BufferedReader(
-                                    new InputStreamReader(clientSocket.getInputStream()));
-                            String inputLine;
-                            // read the input from the client
-                            System.out.println("Listening for messages from connection");
-
-                            while ((inputLine = in.readLine()) != null) {
-                                //System.out.println("Received message: " + inputLine);
-                                numMessagesDelivered++;
-                                onMessageReceived(inputLine);
-                            }
-                            System.out.println("Client has closed the connection: " + clientSocket.getChannel());
-                            clientSocket.close();
-                            
-                        } catch (Exception e) {
-                            e.printStackTrace();
+        int ioThreads = Integer.parseInt(options.getOrDefault("io-threads", "2"));
+        long flushInterval = Long.parseLong(options.getOrDefault("flush-interval", "0"));
+        int batchSize = Integer.parseInt(options.getOrDefault("batch-size", "32768"));
+        long heartbeat = Long.parseLong(options.getOrDefault("heartbeat", "100"));
+        int credits = Integer.parseInt(options.getOrDefault("credits", "4096"));
+        try {
+            // messages are handled on the I/O threads unless --threads moves them to an executor
+            Transport.Listener node = new Transport.Listener() {
+                @Override
+                public void onMessage(int link, Message message) {
+                    // messages from one sender never arrive here concurrently, so the clock can be rebuilt before
+                    // taking the lock that the protocol itself needs
+                    if (message.vectorClock == null) {
+                        // the message only carried the entries that changed, rebuild the sender's full clock
+                        message.vectorClock = clockCompression.rebuild(message.sender, message.clockDelta);
+                        if (message.vectorClock == null) {
+                            return; // changes sent to this process before it restarted, its frames were lost
                         }
-                    }).start();
+                    } else if (compressClocks) {
+                        clockCompression.received(message.sender, message.vectorClock);
+                    }
+                    message.args = Message.unpack(message.payload);
+                    //System.out.println("Received message: " + textFormat.format(message));
+                    onMessageReceived(message);
                 }
-            } catch (IOException e) {
-                System.out.println(
-                        "Exception caught when trying to listen on port " + port + " or listening for a connection");
-                System.out.println(e.getMessage());
-            }
-        }).start();
-    }
 
-    // continuously attempt to connect to each host
-    private static PrintWriter connectToHost(String host, int port, CountDownLatch latch) {
-        while (true) {
-            try {
-                Socket socket = new Socket(host, port);
-                latch.countDown();
-                return new PrintWriter(socket.getOutputStream(), true);
-            } catch (IOException e) {
-                // System.out.println("Failed to connect to server, retrying...");
-                try {
-                    Thread.sleep(1000); // Wait for 1 second before retrying
-                } catch (InterruptedException ie) {
-                    ie.printStackTrace();
+                // the next message to a restarted process carries the whole clock, it has lost the one before
+                @Override
+                public void restarted(int link) {
+                    lock.lock();
+                    try {
+                        clockCompression.restart(link);
+                    } finally {
+                        lock.unlock();
+                    }
                 }
-            }
+            };
+            Transport.Listener listener = Dispatcher.forName(options.getOrDefault("threads", "io"), hosts.length, node);
+            transport = new NioTransport(wireFormat, localHostIndex, hosts.length, ioThreads, flushInterval, batchSize,
+                    heartbeat, credits, listener);
+            transport.listen(port);
+        } catch (IOException e) {
+            System.out.println(
+                    "Exception caught when trying to listen on port " + port + " or listening for a connection");
+            System.out.println(e.getMessage());
         }
     }
 
     public static void main(String[] args) {
-        // input validation
-        if(!validInputs(args)) {
-            System.out.println("Usage: java Node <localHost> <remoteHost1> <remoteHost2> <remoteHost3>");
+        // options are given as --name=value and may appear anywhere, the remaining arguments are the hosts
+        args = parseOptions(args);
+
+        // the cluster comes from a membership file, a local cluster on this machine, or the hosts on the command line
+        membership = loadMembership(args);
+        if (membership == null) {
+            System.out.println("Usage: java Node [options] <localHost> <remoteHost1> [<remoteHost2> ...]");
+            System.out.println("   or: java Node [options] --members=<file> --id=<id>");
+            System.out.println("   or: java Node [options] --local=<numNodes> --id=<id> [--base-port=<port>]");
+            System.out.println("Options: [--mutex=ricart-agrawala|roucairol-carvalho|maekawa|suzuki-kasami] [--quorum=grid|plane] [--wire=binary|text] [--clock=compressed|full|lamport] [--io-threads=N] [--flush-interval=ms] [--batch-size=bytes] [--heartbeat=ms] [--credits=N] [--requests=N] [--locks=K] [--reads=percent] [--broadcasts=M] [--total-order=sequencer|isis] [--window=W] [--threads=io|virtual|platform] [--metrics=jmx|file] [--log=console|off|file] [--log-level=info|debug]");
             return;
         }
 
-        // first argument is the local host, hash to get the port
-        localHost = args[0];
-        int localPort = getPort(localHost);
-
-        // get all of the hosts from the arguments and sort to get the index for the vector clock
-        hosts = args.clone();
-        Arrays.sort(hosts);
-
-        // find the index of this process in the sorted arguments
-        localHostIndex = Arrays.asList(hosts).indexOf(localHost);
+        // every node has a unique name and its index in the membership is its index in the vector clock
+        hosts = membership.names;
+        localHostIndex = membership.localIndex;
+        localHost = hosts[localHostIndex];
+        int localPort = membership.ports[localHostIndex];
         System.out.println(Arrays.toString(hosts) + " - local host " + localHost + " is at index " + localHostIndex);
         System.out.println("Process index: " + localHostIndex);
 
+        // how many messages a process gets depends on the algorithm and, with reused permissions, votes and a token,
+        // on the interleaving, so a process is finished once it and every other process have said they are done
+        requests = Integer.parseInt(options.getOrDefault("requests", "100"));
+        String algorithm = options.getOrDefault("mutex", "ricart-agrawala");
+        broadcasts = Integer.parseInt(options.getOrDefault("broadcasts", "0"));
+        broadcastWindow = Integer.parseInt(options.getOrDefault("window", "64"));
+        broadcastSentAt = new long[broadcasts + 1];
+
+        // binary frames by default, the original text lines can still be selected for debugging
+        log = EventLog.forOptions(options, hosts, localHostIndex);
+        wireFormat = WireFormat.forName(options.getOrDefault("wire", "binary"), hosts);
+
+        // compressed clocks are only understood by the binary format, the text lines always carry the full clock
+        clockCompression = new ClockCompression(hosts.length);
+        compressClocks = wireFormat instanceof BinaryFormat && options.getOrDefault("clock", "compressed").equals("compressed");
+
         // initialize the vector clock
-        vectorClock = new int[args.length];
+        vectorClock = new int[hosts.length];
+        if (options.getOrDefault("clock", "compressed").equals("lamport")) {
+            lamportClock = new int[1];
+            compressClocks = false;
+        }
+
+        metrics = Metrics.forOptions(options, localHost);
+        entries = metrics.counter("criticalSectionEntries");
+        sharedEntries = metrics.counter("sharedEntries");
+        entryWait = metrics.histogram("criticalSectionWaitMicros");
+        messagesPerEntry = metrics.histogram("messagesPerEntry");
+
+        numLocks = Integer.parseInt(options.getOrDefault("locks", "1"));
+        hasOutstandingRequest = new boolean[numLocks];
+        sharedRequest = new boolean[numLocks];
+        readPercent = Integer.parseInt(options.getOrDefault("reads", "0"));
+        requestedAt = new long[numLocks];
+        locks = new NamedLocks(algorithm, new NamedLocks.Owner() {
+            @Override
+            public int timestamp() {
+                if (lamportClock != null) {
+                    return lamportClock[0];
+                }
+                // the sum of the vector clock grows along every causal chain, so a request made after another was
+                // received always has the larger timestamp
+                int sum = 0;
+                for (int entry : vectorClock) {
+                    sum += entry;
+                }
+                return sum;
+            }
+
+            @Override
+            public void send(int processIndex, byte type, int... args) {
+                Node.send(processIndex, type, args);
+            }
+
+            @Override
+            public void criticalSection(int resource) {
+                Node.criticalSection(resource);
+            }
+        }, localHostIndex, hosts.length, numLocks, options, log, metrics);
+        if (algorithm.equals("maekawa")) {
+            // every resource's engine asks the same quorum, so it is printed once here rather than by each engine
+            System.out.println("Quorum: " + Arrays.toString(Maekawa.quorum(localHostIndex, hosts.length,
+                    options.getOrDefault("quorum", "grid"))));
+        }
+
+        deliveredBroadcasts = metrics.counter("broadcastsDelivered");
+        broadcastLatency = metrics.histogram("broadcastLatencyMicros");
+        totalOrder = TotalOrderBroadcast.forOptions(options, new TotalOrderBroadcast.Owner() {
+            @Override
+            public void send(int processIndex, byte type, int... args) {
+                Node.send(processIndex, type, args);
+            }
+
+            @Override
+            public void deliver(int sender, int number, byte[] payload) {
+                Node.deliver(sender, number, payload);
+            }
+        }, localHostIndex, hosts.length);
 
         // start listening on the local port
         startServer(localPort);
 
-        CountDownLatch latch = new CountDownLatch(args.length - 1);
+        CountDownLatch latch = new CountDownLatch(hosts.length - 1);
 
-        writers = new PrintWriter[args.length]; // initialize the writers array with the same length as hosts
-        for (int i = 0; i < args.length; i++) {
+        for (int i = 0; i < hosts.length; i++) {
             if (i == localHostIndex) {
-                writers[i] = null; // The current process doesn't need to write to itself
-            } else {
-                // for each provided host name that is not the local process, connect to it
-                // store the corresponding printwriter in an array parallel to the host index
-                String remoteHost = hosts[i];
-                System.out.println("Waiting for connection from process " + i + ": " + remoteHost);
-                int remotePort = getPort(remoteHost);
-                int finalI = i;
-                new Thread(() -> {
-                    writers[finalI] = connectToHost(remoteHost, remotePort, latch);
-                    System.out.println("Connected to process " + finalI);
-                    remoteHosts.add(remoteHost); // add the remote host to the list
-                }).start();
+                continue; // The current process doesn't need to connect to itself
             }
+            // for each provided host name that is not the local process, connect to it
+            // the transport keeps the connection under the host index and retries until it is reachable
+            String remoteHost = hosts[i];
+            System.out.println("Waiting for connection from process " + i + ": " + remoteHost);
+            int remotePort = membership.ports[i];
+            int finalI = i;
+            remoteHosts.add(remoteHost); // add the remote host to the list
+            transport.connect(i, new InetSocketAddress(membership.hosts[i], remotePort), () -> {
+                System.out.println("Connected to process " + finalI);
+                latch.countDown();
+            });
         }
 
         try {
             System.out.println(localHost + " waiting for all connections to be established...");
             latch.await(); // wait for all connections to be established
-            Thread.sleep(1000);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
         
 
-        // broadcast 100 messages to all of the remote hosts
-        for (int i = 1; i <= 100; i++) {
+        // reads are picked at random but the same way on every run
+        Random reads = new Random(localHostIndex);
 
-            // prevent the process from sending more than one request broadcast at a time
-            // if the process currently has an outstanding request then stall until it has received the replies
-            if(hasOutstandingRequest || state == State.HELD) {
-                while(hasOutstandingRequest || state == State.HELD) {
+        // make 100 requests unless told otherwise, taking the resources in turn. each resource has at most one
+        // request outstanding, so with several resources their requests run side by side
+        for (int i = 1; i <= requests; i++) {
+            int resource = (i - 1) % numLocks;
+            lock.lock();
+            try {
+                // prevent the process from sending more than one request broadcast at a time
+                // if the process currently has an outstanding request then wait until the critical section is left
+                while (hasOutstandingRequest[resource]) {
                     try {
-                        Thread.sleep(20);
+                        requestDone.await();
                     } catch (InterruptedException ex) {
                         ex.printStackTrace();
                     }
                 }
-            }
 
-            // set the flag to be true to indicate there is a pending request now
-            state = State.WANTED;
-            hasOutstandingRequest = true;
+                // set the flag to be true to indicate there is a pending request now
+                requestedAt[resource] = System.nanoTime();
+                hasOutstandingRequest[resource] = true;
+                outstandingRequests++;
+                requestNumber = i;
+                sharedRequest[resource] = reads.nextInt(100) < readPercent;
 
-            vectorClock[localHostIndex]++;
-            // for each broadcast, send a message to each connected process through their writer
-            for (int j = 0; j < writers.length; j++) {
-                if(j == localHostIndex) {
-                    continue; // skip sending a message to the local process
+                // the algorithm sends the requests it needs, the critical section may already be done when it returns
+                if (sharedRequest[resource]) {
+                    locks.engine(resource).requestShared();
+                } else {
+                    locks.engine(resource).request();
                 }
 
-                // send a message to all remote processes
-                sendMessage(j, "REQUEST");
-
-                String host = hosts[j]; // Get the host for this writer
-                System.out.println("Request " + i + " sent to " + host);
+                log.log(EventLog.DEBUG, LogEvents.CLOCK, lamportClock != null ? lamportClock : vectorClock, -1, 0, 0);
+            } finally {
+                lock.unlock();
             }
-
-            System.out.println("Vector clock: " + Arrays.toString(vectorClock));
         }
 
-        // wait for all messages to be delivered
-        while(numMessagesDelivered < 100 * (remoteHosts.size())) {
+        // then broadcast in total order, up to the window of messages in flight at once rather than one at a time
+        long broadcastStart = System.nanoTime();
+        for (int i = 1; i <= broadcasts; i++) {
+            lock.lock();
             try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                while (broadcastsInFlight >= broadcastWindow) {
+                    try {
+                        broadcastDelivered.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                }
+                broadcastsInFlight++;
+                broadcastSentAt[i] = System.nanoTime();
+                totalOrder.broadcast(i, ("broadcast " + i + " from " + localHost).getBytes(StandardCharsets.UTF_8));
+            } finally {
+                lock.unlock();
             }
         }
+
+        // wait for all messages to be delivered, the last one to arrive wakes this thread up
+        lock.lock();
         try {
-            Thread.sleep(1000); // Sleep for 1 second to ensure all messages are delivered
-            
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            while (broadcastsDelivered < broadcasts * hosts.length) {
+                try {
+                    broadcastDelivered.await();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (broadcasts > 0) {
+                long millis = Math.max(1, (System.nanoTime() - broadcastStart) / 1_000_000);
+                System.out.println("Total order broadcasts delivered: " + broadcastsDelivered + " in " + millis + " ms, "
+                        + broadcastsDelivered * 1000L / millis + " per second");
+                System.out.println("Delivery order digest: " + Long.toHexString(deliveryDigest));
+            }
+            while (outstandingRequests > 0) {
+                try {
+                    allReceived.await();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+            // every link is in order, so once a process's DONE arrives so has everything it sent before, and what
+            // is still sent after that only answers requests that have already been served
+            for (int i = 0; i < hosts.length; i++) {
+                if (i != localHostIndex) {
+                    send(i, Message.DONE, new int[0]);
+                }
+            }
+            while (doneReceived < hosts.length - 1) {
+                try {
+                    allReceived.await();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            lock.unlock();
         }
         System.out.println("All messages delivered");
         System.out.println("Number of messages received: " + numMessagesDelivered);
-        System.out.println("Final vector clock: " + Arrays.toString(vectorClock));
-        System.out.println("Critical section executions: " + criticalSectionExecutions);
-    }
-
-    private static int getPort(String host) {
-        return BASE_PORT + Math.abs(host.hashCode() % 10000);
-    }
-
-    // manages the sending of messages, provide a process index to send to and the type in the form of "REQUEST" or "REPLY"
-    private static synchronized void sendMessage(int processIndex, String messageType) {
-        PrintWriter writer = writers[processIndex];
-        //vectorClock[localHostIndex]++;
-
-        // MESSAGE FORMAT: "<hostname> <host_index> with vector clock <vectorClock> type <messageType>"
-        // send the message to the process
-        String message = localHost + " " + localHostIndex + " with vector clock " + Arrays.toString(vectorClock) + " type " + messageType;
-        writer.println(message);
-        writer.flush();
-        System.out.println("Sent message: " + message);
-
-        if (writer.checkError()) {
-            System.out.println("An error occurred while sending the message: " + message);
+        if (lamportClock != null) {
+            System.out.println("Final Lamport clock: " + lamportClock[0]);
+        } else {
+            System.out.println("Final vector clock: " + Arrays.toString(vectorClock));
         }
+        System.out.println("Critical section executions: " + criticalSectionExecutions);
+        metrics.close();
+        log.close();
     }
 
-    // parses the vector clock from a received message
-    private static int[] parseVectorClock(String message) {
-        Pattern pattern = Pattern.compile("vector clock \\[(.*)\\]"); // extract the vector clock from the message
-        Matcher matcher = pattern.matcher(message);
-
-        if (matcher.find()) {
-            // extract the vector clock
-            String vectorClockStr = matcher.group(1);
-
-            // split the vector clock string into an array of strings
-            String[] vectorClockStrArray = vectorClockStr.split(", ");
-
-            // convert the array of strings to an array of integers
-            int[] vectorClock = new int[vectorClockStrArray.length];
-            for (int i = 0; i < vectorClockStrArray.length; i++) {
-                vectorClock[i] = Integer.parseInt(vectorClockStrArray[i]);
+    // builds the membership from --members or --local if given, otherwise from the host names in the arguments
+    private static Membership loadMembership(String[] args) {
+        int basePort = Integer.parseInt(options.getOrDefault("base-port", String.valueOf(Membership.BASE_PORT)));
+        try {
+            if (options.containsKey("members") || options.containsKey("local")) {
+                if (!options.containsKey("id")) {
+                    System.out.println("The local node must be given with --id");
+                    return null;
+                }
+                int localId = Integer.parseInt(options.get("id"));
+                if (options.containsKey("members")) {
+                    return Membership.fromFile(options.get("members"), localId);
+                }
+                return Membership.local(Integer.parseInt(options.get("local")), basePort, localId);
             }
-
-            return vectorClock;
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Invalid membership: " + e.getMessage());
+            return null;
         }
 
-        return new int[0]; // return an empty array if the vector clock is not found in the message
+        // input validation
+        if (!validInputs(args)) {
+            return null;
+        }
+        return Membership.fromHosts(args, basePort);
     }
 
-    // parses the message type from a received message
-    private static String parseMessageType(String message) {
-        Pattern pattern = Pattern.compile("type (.*)"); // extract the message type from the message
-        Matcher matcher = pattern.matcher(message);
-
-        if (matcher.find()) {
-            // extract the message type
-            return matcher.group(1);
+    // sends a protocol message to a process, called by the algorithm with the lock held. every send is an event
+    // of its own, so each message carries a later clock than the one before it
+    private static void send(int processIndex, byte messageType, int[] args) {
+        int[] clock;
+        if (lamportClock != null) {
+            lamportClock[0]++;
+            clock = lamportClock;
+        } else {
+            vectorClock[localHostIndex]++;
+            clock = vectorClock;
         }
 
-        return ""; // return an empty string if the message type is not found in the message
+        // the message is encoded straight into the process's send buffer and written out by the transport's I/O thread
+        Message message = new Message(messageType, localHostIndex, ++messagesSent, clock,
+                args.length == 0 ? null : Message.pack(args));
+        if (compressClocks) {
+            // only the entries that changed since the last message to this process go on the wire
+            clockCompression.sync(vectorClock);
+            message.clockDelta = clockCompression.delta(processIndex);
+        }
+        transport.send(processIndex, message);
+        messagesForRequest++;
+        log.log(EventLog.DEBUG, LogEvents.SENT, message, processIndex, 0, 0);
+        countType(sentByType, messageType, "Sent");
+        if (messageType == Message.REQUEST) {
+            log.log(EventLog.DEBUG, LogEvents.REQUEST_SENT, (int[]) null, processIndex, requestNumber, 0);
+        }
     }
 
-    // method for handling message buffering and delivery to ensure causal ordering as well as total ordering
-    private static synchronized void onMessageReceived(String message) {
+    // merges the clock of a received message and hands it to its protocol. each link delivers in order and the
+    // protocols only rely on that, so a message is handled as soon as it arrives and nothing is kept once it has been
+    private static void onMessageReceived(Message message) {
+        lock.lock();
         try {
-            String messageType = parseMessageType(message); // parse the type from the received message (req or reply)
-            int[] receivedTimestamp = parseVectorClock(message); // parse the vector clock from the received message
-            int senderIndex = getSenderIndex(message); // extract the sender index from the message
-            String hostName = hosts[senderIndex]; // use the sender index to get the host name
-            // add the message to the buffer
-            messageBuffer.add(new Pair(message, vectorClock));
-
-             // check for and deliver eligible messages
-            Iterator<Pair> iterator = messageBuffer.iterator();
-            while (iterator.hasNext()) {
-            Pair bufferedMessage = iterator.next();
-            if (isReadyForDelivery(bufferedMessage.message, receivedTimestamp, vectorClock)) {
-                System.out.println("Delivering: " + bufferedMessage.message);
-                iterator.remove();
+            numMessagesDelivered++;
+            if (lamportClock != null) {
+                // a single clock to merge, the message is dispatched on arrival as in every clock mode
+                lamportClock[0] = Math.max(lamportClock[0], message.vectorClock[0]) + 1;
+                dispatch(message);
+                return;
             }
-        }
-            
+            int[] receivedTimestamp = message.vectorClock; // the vector clock carried by the received message
+            log.log(EventLog.DEBUG, LogEvents.DELIVERED, message, -1, 0, 0);
+
             // update the vector clock accordingly
             vectorClock[localHostIndex]++; // increment the local process's vector clock
             for (int i = 0; i < vectorClock.length; i++) {
                 vectorClock[i] = Math.max(vectorClock[i], receivedTimestamp[i]);
             }
 
-            if (messageType.equals("REQUEST")) {
-                System.out.println("Received request: " + message);
-                // handle request message
-
-                // compare the timestamps between the two processes to determine whether to reply or defer the request
-                // if currently holding or has a higher prio, then defer the request, otherwise send a reply
-                // if a message has a causal ordering violation, then buffer the message appropriately
-
-                // if a process is currently in the critical section, defer the request to ensure mutual exclusion
-                if (state == State.HELD) {
-                    System.out.println("Deferring message as state is HELD: " + message);
-                    deferredRequests.add(message);
-                    return;
-                }
-
-                else if (state == State.WANTED && // check to see if this process currently wants access and will contest the request
-                    (vectorClock[localHostIndex] < receivedTimestamp[senderIndex]  // check if the requesting process has a higher timestamp
-                    || (vectorClock[localHostIndex] == receivedTimestamp[senderIndex] && localHostIndex < senderIndex))) { // in case of a tie, check if the requesting process has a higher process id
-
-                    System.out.println("Deferring request from " + hostName + " until critical section access is granted");
-                    deferredRequests.add(message);
-                    
-                } else {
-                    // send a reply to the requesting message
-                    System.out.println("Request has higher priority, sending reply to " + hostName + "'s request");
-                    vectorClock[localHostIndex]++;
-                    sendMessage(senderIndex, "REPLY");
-                }
-            } else if (messageType.equals("REPLY")) {
-                System.out.println("Received reply: " + message);
-                // handle reply message
-                repliesReceived++;
-                //System.out.println("Replies received: " + repliesReceived);
-                if (repliesReceived == remoteHosts.size()) {
-                    criticalSection();
-                }
-            }
-            else {
-                System.out.println("Unknown message type in message: " + message);
-            }
+            dispatch(message);
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            lock.unlock();
         }
     }
 
-    private static void criticalSection() {
-        state = State.HELD;
-        criticalSectionExecutions++;
-        System.out.println("Currently in the critical section, num times: " + criticalSectionExecutions + ", sending replies to " + deferredRequests.size() + " requests now");
+    // hands a received message to the protocol it belongs to
+    private static void dispatch(Message message) {
+        countType(receivedByType, message.type, "Received");
+        if (TotalOrderBroadcast.carries(message.type)) {
+            totalOrder.onMessage(message);
+            return;
+        }
+        if (message.type == Message.DONE) {
+            doneReceived++;
+            allReceived.signalAll();
+            return;
+        }
+        // the algorithm decides whether to reply, defer or enter
+        locks.onMessage(message);
+    }
 
-        int numDeferredRequests = 0;
-        // process all deferred requests and send replies
-        for (String deferredRequest : deferredRequests) {
-            // parse the necessary information from the deferred request
-            int senderIndex = getSenderIndex(deferredRequest);
+    // delivers a broadcast in total order, the digest covers the payloads as well as the order
+    private static void deliver(int sender, int number, byte[] payload) {
+        broadcastsDelivered++;
+        deliveredBroadcasts.increment();
+        deliveryDigest = (deliveryDigest * 31 + ((long) sender << 32 | number)) * 31 + Arrays.hashCode(payload);
+        if (sender == localHostIndex) {
+            broadcastLatency.record((System.nanoTime() - broadcastSentAt[number]) / 1000);
+            broadcastsInFlight--;
+        }
+        log.log(EventLog.DEBUG, LogEvents.BROADCAST_DELIVERED, (int[]) null, sender, number, 0);
+        broadcastDelivered.signalAll();
+    }
 
-            // Send a reply
-            vectorClock[localHostIndex]++;
-            sendMessage(senderIndex, "REPLY");
-            numDeferredRequests++;
+    // counts a message under its type, the counter is created the first time the type is seen
+    private static void countType(LongAdder[] counters, byte type, String direction) {
+        if (type < 0) {
+            return;
         }
-        System.out.println(numDeferredRequests + " replies sent to deferred requests, current number of deferred requests: " + deferredRequests.size());
-        deferredRequests.clear();
-        repliesReceived = 0; // reset the number of replies for the next request
-        hasOutstandingRequest = false; // allow for another request to be sent out
-        state = State.IDLE;
+        if (counters[type] == null) {
+            counters[type] = metrics.counter(Message.typeName(type).toLowerCase(Locale.ROOT) + direction);
+        }
+        counters[type].increment();
     }
 
-    // MESSAGE FORMAT: "<hostname> <host_index> with vector clock <vectorClock> type <messageType>"
-    private static int getSenderIndex(String message) {
-        String[] parts = message.split(" ");
-        int processIndex = Integer.parseInt(parts[1]);
-        if (processIndex == localHostIndex) {
-            System.out.println("Message is addressed to itself: " + message);
+    // runs the critical section once the algorithm grants it, then leaves it again
+    private static void criticalSection(int resource) {
+        criticalSectionExecutions++;
+        entries.increment();
+        if (sharedRequest[resource]) {
+            sharedEntries.increment();
         }
-        if(processIndex <= 3 || processIndex >= 0) { // check to make sure the process index is valid i.e. in range from 0-3 inclusive
-            return processIndex;
+        entryWait.record((System.nanoTime() - requestedAt[resource]) / 1000);
+        messagesPerEntry.record(messagesForRequest);
+        messagesForRequest = 0;
+        log.log(EventLog.INFO, LogEvents.ENTERED, (int[]) null, -1, criticalSectionExecutions, locks.engine(resource).waiting());
+
+        locks.engine(resource).release();
+        hasOutstandingRequest[resource] = false; // allow for another request for the resource to be sent out
+        outstandingRequests--;
+        requestDone.signalAll();
+        if (criticalSectionExecutions == requests) {
+            allReceived.signalAll();
         }
-        else {
-            System.out.println("Invalid sender " + processIndex + " in message " + message);
+    }
+
+    // pulls the --name=value options out of the arguments and returns the arguments that are left
+    private static String[] parseOptions(String[] args) {
+        List<String> remaining = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+            } else {
+                remaining.add(arg);
+            }
         }
-        return -1;
+        return remaining.toArray(new String[0]);
     }
 
     private static boolean validInputs(String[] args) {
-        // each process must have 4 arguments: a host name and 3 remote hosts
-        if (args.length != 4) {
-            System.out.println("Invalid number of arguments, must be 4");
+        // each process needs the local host name and at least one remote host, there is no upper limit
+        if (args.length < 2) {
+            System.out.println("Invalid number of arguments, must be at least 2");
             return false;
         }
     
         Set<String> machines = new HashSet<>();
-        // each host name must be in the format dcXX where XX is a number between 01 and 45 inclusive
+        // every host name must appear once, any resolvable name is accepted so clusters are not limited to dc01-dc45
         for (String arg : args) {
-            if (!arg.matches("dc0[1-9]") && !arg.matches("dc[1-3][0-9]") && !arg.matches("dc4[0-5]")) {
-                System.out.println("Invalid host name: " + arg + ", must be in the format dcXX where XX is a number between 01 and 45 inclusive");
-                return false;
-            }
-    
             if (!machines.add(arg)) {
-                System.out.println("Duplicate machine entry: " + arg + ", must have 4 unique machines");
+                System.out.println("Duplicate machine entry: " + arg + ", every machine must be unique");
                 return false;
             }
         }
@@ -390,35 +537,4 @@ public class Node {
         // otherwise, the inputs are valid
         return true;
     }
-
-    private static boolean isReadyForDelivery(String message, int[] receivedTimestamp, int[] vectorClock) {
-        int senderIndex = getSenderIndex(message);
-        if (vectorClock[senderIndex] + 1 != receivedTimestamp[senderIndex]) {
-            return false;
-        }
-        for (int i = 0; i < vectorClock.length; i++) {
-            if (i != senderIndex && vectorClock[i] < receivedTimestamp[i]) {
-                return false;
-            }
-        }
-        return true;
-    }
 }
-
-
-
-// Pair class to hold a message and its vector clock
-class Pair {
-    public String message;
-    public int[] vectorClock;
-
-    public Pair(String message, int[] vectorClock) {
-        this.message = message;
-        this.vectorClock = vectorClock;
-    }
-
-    @Override
-    public String toString() {
-        return message + " with vector clock " + Arrays.toString(vectorClock);
-    }
-}
\ No newline at end of file
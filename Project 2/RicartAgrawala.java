@@ -0,0 +1,161 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Ricart-Agrawala mutual exclusion: a process asks every other process for permission and enters once all of them
+// have replied. a process that is in the critical section, or wants it and asked first, defers its reply until it
+// leaves. requests are ordered by the timestamp they were made at and then by process index, so of two competing
+// requests both processes defer the same one
+//
+// with permission reuse (Roucairol-Carvalho) a process keeps each permission after leaving until that process asks
+// for it back, and only asks the processes whose permission it gave away, so uncontended re-entry costs no messages.
+// a process that gives a permission away while it still wants the critical section asks for it again straight away
+//
+// shared (read) requests carry a second argument and are answered straight away by a process that only wants or
+// holds the section for reading, so readers never defer each other and only a writer excludes anyone. requests that
+// do conflict keep the (timestamp, index) order, so a writer waits only for the readers that asked before it and
+// every reader that asks after it waits for it, and writers are not starved. shared requests use plain
+// Ricart-Agrawala, a permission given for a read cannot be kept for a later write
+class RicartAgrawala implements MutualExclusion {
+    private final Context node;
+    private final int localIndex;
+    private final int numHosts;
+    private final boolean reusePermissions;
+    private final EventLog log;
+    private final LongAdder deferrals;
+    private final Queue<Message> deferredRequests = new ArrayDeque<>();
+    private final boolean[] permission; // processes that have replied and not asked since
+    private int permissions = 0;
+    private State state = State.IDLE;
+    private int requestTimestamp;
+    private boolean shared; // the current request only reads
+
+    public RicartAgrawala(Context node, int localIndex, int numHosts, boolean reusePermissions, EventLog log,
+                          Metrics metrics) {
+        this.node = node;
+        this.localIndex = localIndex;
+        this.numHosts = numHosts;
+        this.reusePermissions = reusePermissions;
+        this.log = log;
+        this.deferrals = metrics.counter("requestsDeferred");
+        this.permission = new boolean[numHosts];
+    }
+
+    @Override
+    public void request() {
+        shared = false;
+        ask();
+    }
+
+    @Override
+    public void requestShared() {
+        shared = true;
+        if (reusePermissions) {
+            // a reused permission may have been given for a read, so shared requests always ask everyone
+            Arrays.fill(permission, false);
+            permissions = 0;
+        }
+        ask();
+    }
+
+    private void ask() {
+        state = State.WANTED;
+        requestTimestamp = node.timestamp();
+        for (int i = 0; i < numHosts; i++) {
+            if (i != localIndex && !permission[i]) {
+                sendRequest(i);
+            }
+        }
+        if (permissions == numHosts - 1) {
+            enter(); // every permission is still held from before
+        }
+    }
+
+    @Override
+    public void release() {
+        int numDeferredRequests = 0;
+        // process all deferred requests and send replies
+        while (!deferredRequests.isEmpty()) {
+            reply(deferredRequests.poll().sender);
+            numDeferredRequests++;
+        }
+        log.log(EventLog.INFO, LogEvents.REPLIED, (int[]) null, -1, numDeferredRequests, deferredRequests.size());
+        if (!reusePermissions || shared) {
+            // plain Ricart-Agrawala asks everyone again for the next request
+            Arrays.fill(permission, false);
+            permissions = 0;
+        }
+        state = State.IDLE;
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        int senderIndex = message.sender;
+        if (message.type == Message.REQUEST) {
+            log.log(EventLog.DEBUG, LogEvents.RECEIVED_REQUEST, message, -1, 0, 0);
+            // two reads never conflict, so one can always be answered
+            boolean conflicts = !(shared && message.args.length > 1 && message.args[1] == 1);
+
+            // if a process is currently in the critical section, defer the request to ensure mutual exclusion
+            if (state == State.HELD && conflicts) {
+                log.log(EventLog.INFO, LogEvents.DEFERRED_HELD, message, -1, 0, 0);
+                deferredRequests.add(message);
+                deferrals.increment();
+            } else if (state == State.WANTED && conflicts && // check to see if this process currently wants access and will contest the request
+                    (requestTimestamp < message.args[0] // check if the requesting process asked later
+                    || (requestTimestamp == message.args[0] && localHostFirst(senderIndex)))) { // in case of a tie, the lower process index goes first
+                log.log(EventLog.INFO, LogEvents.DEFERRED, (int[]) null, senderIndex, 0, 0);
+                deferredRequests.add(message);
+                deferrals.increment();
+            } else {
+                // send a reply to the requesting message
+                log.log(EventLog.INFO, LogEvents.REPLYING, (int[]) null, senderIndex, 0, 0);
+                reply(senderIndex);
+            }
+        } else if (message.type == Message.REPLY) {
+            log.log(EventLog.DEBUG, LogEvents.RECEIVED_REPLY, message, -1, 0, 0);
+            if (!permission[senderIndex]) {
+                permission[senderIndex] = true;
+                permissions++;
+            }
+            if (state == State.WANTED && permissions == numHosts - 1) {
+                enter();
+            }
+        } else {
+            log.log(EventLog.INFO, LogEvents.UNKNOWN, message, -1, 0, 0);
+        }
+    }
+
+    @Override
+    public int waiting() {
+        return deferredRequests.size();
+    }
+
+    private boolean localHostFirst(int senderIndex) {
+        return localIndex < senderIndex;
+    }
+
+    private void enter() {
+        state = State.HELD;
+        node.criticalSection();
+    }
+
+    // gives the process permission, and asks for it back if this process still wants the critical section
+    private void reply(int processIndex) {
+        node.send(processIndex, Message.REPLY);
+        if (reusePermissions && !shared && permission[processIndex]) {
+            permission[processIndex] = false;
+            permissions--;
+            if (state == State.WANTED) {
+                sendRequest(processIndex);
+            }
+        }
+    }
+
+    private void sendRequest(int processIndex) {
+        if (shared) {
+            node.send(processIndex, Message.REQUEST, requestTimestamp, 1);
+        } else {
+            node.send(processIndex, Message.REQUEST, requestTimestamp);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+import java.util.*;
+
+// fixed sequencer total order: a broadcast goes to every process straight from its sender, and process 0 gives each
+// message it receives the next position in the total order and tells every process. a process delivers position p
+// once it has both the message and its position and everything before p has been delivered. links deliver in order,
+// so the sequencer numbers each sender's messages in the order they were sent
+class Sequencer implements TotalOrderBroadcast {
+    private static final int SEQUENCER = 0;
+
+    private final Owner owner;
+    private final int localIndex;
+    private final int numHosts;
+    private final Map<Long, byte[]> received = new HashMap<>(); // payloads that arrived and have not been delivered
+    private final Map<Integer, Long> positions = new HashMap<>(); // the message at each position not yet delivered
+    private int nextPosition = 0; // the sequencer's next position to hand out
+    private int delivered = 0; // the next position to deliver
+
+    public Sequencer(Owner owner, int localIndex, int numHosts) {
+        this.owner = owner;
+        this.localIndex = localIndex;
+        this.numHosts = numHosts;
+    }
+
+    @Override
+    public void broadcast(int number, byte[] payload) {
+        int[] args = TotalOrderBroadcast.dataArgs(number, payload);
+        for (int i = 0; i < numHosts; i++) {
+            if (i != localIndex) {
+                owner.send(i, Message.DATA, args);
+            }
+        }
+        onData(localIndex, number, payload);
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        if (message.type == Message.DATA) {
+            onData(message.sender, message.args[0], TotalOrderBroadcast.payloadOf(message.args));
+        } else if (message.type == Message.SEQUENCE) {
+            positions.put(message.args[0], id(message.args[1], message.args[2]));
+            deliverReady();
+        }
+    }
+
+    private void onData(int sender, int number, byte[] payload) {
+        received.put(id(sender, number), payload);
+        if (localIndex == SEQUENCER) {
+            int position = nextPosition++;
+            for (int i = 0; i < numHosts; i++) {
+                if (i != localIndex) {
+                    owner.send(i, Message.SEQUENCE, position, sender, number);
+                }
+            }
+            positions.put(position, id(sender, number));
+        }
+        deliverReady();
+    }
+
+    private void deliverReady() {
+        Long next;
+        while ((next = positions.get(delivered)) != null && received.containsKey(next)) {
+            positions.remove(delivered);
+            delivered++;
+            owner.deliver((int) (next >>> 32), (int) (long) next, received.remove(next));
+        }
+    }
+
+    private static long id(int sender, int number) {
+        return (long) sender << 32 | (number & 0xffffffffL);
+    }
+}
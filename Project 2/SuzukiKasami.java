@@ -0,0 +1,132 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+// Suzuki-Kasami token mutual exclusion: a single token moves between the processes and whoever holds it may enter.
+// a process without the token broadcasts its request number, and the holder passes the token on when it leaves. the
+// token carries the number of the last request it served for every process and a queue of processes still waiting,
+// so a request is served exactly once. entering again while holding the token costs no messages, taking the token
+// from another process costs N messages instead of the 2(N-1) of Ricart-Agrawala
+//
+// process 0 starts with the token
+class SuzukiKasami implements MutualExclusion {
+    private final Context node;
+    private final int localIndex;
+    private final int numHosts;
+    private final EventLog log;
+    private final LongAdder deferrals;
+    private final int[] requestNumbers; // highest request number heard from each process
+    private State state = State.IDLE;
+    private boolean hasToken;
+    private int[] lastServed; // the token's request number served last for each process, valid while it is held
+    private Deque<Integer> tokenQueue; // processes the token goes to next, valid while it is held
+
+    public SuzukiKasami(Context node, int localIndex, int numHosts, EventLog log, Metrics metrics) {
+        this.node = node;
+        this.localIndex = localIndex;
+        this.numHosts = numHosts;
+        this.log = log;
+        this.deferrals = metrics.counter("requestsDeferred");
+        this.requestNumbers = new int[numHosts];
+        this.hasToken = localIndex == 0;
+        if (hasToken) {
+            lastServed = new int[numHosts];
+            tokenQueue = new ArrayDeque<>();
+        }
+    }
+
+    @Override
+    public void request() {
+        state = State.WANTED;
+        if (hasToken) {
+            enter();
+            return;
+        }
+        requestNumbers[localIndex]++;
+        for (int i = 0; i < numHosts; i++) {
+            if (i != localIndex) {
+                node.send(i, Message.REQUEST, requestNumbers[localIndex]);
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        lastServed[localIndex] = requestNumbers[localIndex];
+        // every process with a request the token has not served yet joins the queue
+        for (int i = 0; i < numHosts; i++) {
+            if (i != localIndex && requestNumbers[i] == lastServed[i] + 1 && !tokenQueue.contains(i)) {
+                tokenQueue.add(i);
+            }
+        }
+        int numWaiting = tokenQueue.size();
+        state = State.IDLE;
+        if (!tokenQueue.isEmpty()) {
+            passToken(tokenQueue.poll());
+        }
+        log.log(EventLog.INFO, LogEvents.REPLIED, (int[]) null, -1, numWaiting > 0 ? 1 : 0, numWaiting);
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        int senderIndex = message.sender;
+        if (message.type == Message.REQUEST) {
+            log.log(EventLog.DEBUG, LogEvents.RECEIVED_REQUEST, message, -1, 0, 0);
+            // a request number older than one already heard is a request that has been served
+            requestNumbers[senderIndex] = Math.max(requestNumbers[senderIndex], message.args[0]);
+            if (hasToken && requestNumbers[senderIndex] == lastServed[senderIndex] + 1) {
+                if (state == State.IDLE) {
+                    passToken(senderIndex);
+                } else {
+                    log.log(EventLog.INFO, LogEvents.DEFERRED, (int[]) null, senderIndex, 0, 0);
+                    deferrals.increment();
+                }
+            }
+        } else if (message.type == Message.TOKEN) {
+            log.log(EventLog.DEBUG, LogEvents.RECEIVED, message, -1, 0, 0);
+            // the token arrives as the last served numbers followed by the queue
+            hasToken = true;
+            lastServed = Arrays.copyOf(message.args, numHosts);
+            tokenQueue = new ArrayDeque<>();
+            for (int i = numHosts; i < message.args.length; i++) {
+                tokenQueue.add(message.args[i]);
+            }
+            if (state == State.WANTED) {
+                enter();
+            }
+        } else {
+            log.log(EventLog.INFO, LogEvents.UNKNOWN, message, -1, 0, 0);
+        }
+    }
+
+    @Override
+    public int waiting() {
+        if (!hasToken) {
+            return 0;
+        }
+        int numWaiting = 0;
+        for (int i = 0; i < numHosts; i++) {
+            if (i != localIndex && requestNumbers[i] == lastServed[i] + 1) {
+                numWaiting++;
+            }
+        }
+        return numWaiting;
+    }
+
+    private void enter() {
+        state = State.HELD;
+        node.criticalSection();
+    }
+
+    private void passToken(int processIndex) {
+        int[] token = Arrays.copyOf(lastServed, numHosts + tokenQueue.size());
+        int i = numHosts;
+        for (int queued : tokenQueue) {
+            token[i++] = queued;
+        }
+        hasToken = false;
+        lastServed = null;
+        tokenQueue = null;
+        log.log(EventLog.INFO, LogEvents.TOKEN_PASSED, (int[]) null, processIndex, 0, 0);
+        node.send(processIndex, Message.TOKEN, token);
+    }
+}
@@ -0,0 +1,118 @@
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// the original human readable line format, slower than the binary one but useful for debugging with plain tools
+// MESSAGE FORMAT: "<hostname> <host_index> with vector clock <vectorClock> type <messageType>", followed by
+// " args <args>" when the message carries protocol values
+class TextFormat implements WireFormat {
+    private static final Pattern VECTOR_CLOCK = Pattern.compile("vector clock \\[(.*?)\\]");
+    private static final Pattern MESSAGE_TYPE = Pattern.compile("type (\\S+)");
+    private static final Pattern ARGS = Pattern.compile("args \\[(.*?)\\]");
+    private final String[] hosts;
+
+    public TextFormat(String[] hosts) {
+        this.hosts = hosts;
+    }
+
+    // formats a message as the readable line, also used for console output regardless of the wire format
+    public String format(Message message) {
+        String line = hosts[message.sender] + " " + message.sender + " with vector clock " + Arrays.toString(message.vectorClock) + " type " + Message.typeName(message.type);
+        return message.payload == null ? line : line + " args " + Arrays.toString(Message.unpack(message.payload));
+    }
+
+    @Override
+    public void encode(Message message, ByteBuffer out) {
+        byte[] line = format(message).getBytes(StandardCharsets.UTF_8);
+        if (out.remaining() < line.length + 1) {
+            throw new BufferOverflowException();
+        }
+        out.put(line).put((byte) '\n');
+    }
+
+    @Override
+    public Message decode(ByteBuffer in) {
+        // look for the end of the line, if there is none yet then the message is still incomplete
+        int end = -1;
+        for (int i = in.position(); i < in.limit(); i++) {
+            if (in.get(i) == '\n') {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[end - in.position()];
+        in.get(bytes);
+        in.get(); // skip the newline
+        String line = new String(bytes, StandardCharsets.UTF_8).trim();
+
+        // the text format carries no sequence number
+        byte type = Message.typeOf(parseMessageType(line));
+        Matcher args = ARGS.matcher(line);
+        byte[] payload = null;
+        if (args.find()) {
+            payload = Message.pack(Arrays.stream(args.group(1).split(", ")).filter(s -> !s.isEmpty()).mapToInt(Integer::parseInt).toArray());
+        }
+        return new Message(type, getSenderIndex(line), 0, parseVectorClock(line), payload);
+    }
+
+    @Override
+    public int maxFrameSize(Message message) {
+        int args = message.payload == null ? 0 : message.payload.length;
+        return 64 + hosts[message.sender].length() + 12 * (message.vectorClock.length + args);
+    }
+
+    // parses the vector clock from a received message
+    public static int[] parseVectorClock(String message) {
+        Matcher matcher = VECTOR_CLOCK.matcher(message); // extract the vector clock from the message
+
+        if (matcher.find()) {
+            // extract the vector clock
+            String vectorClockStr = matcher.group(1);
+
+            // split the vector clock string into an array of strings
+            String[] vectorClockStrArray = vectorClockStr.split(", ");
+
+            // convert the array of strings to an array of integers
+            int[] vectorClock = new int[vectorClockStrArray.length];
+            for (int i = 0; i < vectorClockStrArray.length; i++) {
+                vectorClock[i] = Integer.parseInt(vectorClockStrArray[i]);
+            }
+
+            return vectorClock;
+        }
+
+        return new int[0]; // return an empty array if the vector clock is not found in the message
+    }
+
+    // parses the message type from a received message
+    public static String parseMessageType(String message) {
+        Matcher matcher = MESSAGE_TYPE.matcher(message); // extract the message type from the message
+
+        if (matcher.find()) {
+            // extract the message type
+            return matcher.group(1);
+        }
+
+        return ""; // return an empty string if the message type is not found in the message
+    }
+
+    // MESSAGE FORMAT: "<hostname> <host_index> with vector clock <vectorClock> type <messageType>"
+    public int getSenderIndex(String message) {
+        String[] parts = message.split(" ");
+        int processIndex = Integer.parseInt(parts[1]);
+        if (processIndex >= 0 && processIndex < hosts.length) { // check to make sure the process index is in range
+            return processIndex;
+        }
+        else {
+            System.out.println("Invalid sender " + processIndex + " in message " + message);
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,63 @@
+import java.util.Map;
+
+// total order broadcast: every process delivers every broadcast message, its own included, in the same order. a
+// process may have many broadcasts in flight at once, the order is agreed for each message on its own. like the
+// mutual exclusion engines these are called and call back with the node's lock held. each broadcast carries the
+// application's payload, which is handed back with the message on delivery. a DATA message carries the sender's number
+// for the message followed by the payload one byte per value, so it goes through either wire format as it is
+//
+// TOTAL ORDER OPTION: --total-order=sequencer has process 0 number the messages, two messages per receiver for each
+// broadcast and the order follows the sequencer's arrival order. --total-order=isis agrees on a timestamp for each
+// message instead, every receiver proposes one and the sender picks the largest, three messages per receiver but no
+// process does more work than the others
+interface TotalOrderBroadcast {
+    // the node side
+    interface Owner {
+        void send(int processIndex, byte type, int... args);
+
+        // the message the sender numbered so is next in the total order, with the payload it was broadcast with
+        void deliver(int sender, int number, byte[] payload);
+    }
+
+    // broadcasts the payload as the local message with the given number, numbers start at 1 and go up by one
+    void broadcast(int number, byte[] payload);
+
+    void onMessage(Message message);
+
+    // whether a message type belongs to total order broadcast rather than to mutual exclusion
+    static boolean carries(byte type) {
+        return type == Message.DATA || type == Message.SEQUENCE || type == Message.PROPOSE || type == Message.AGREED;
+    }
+
+    // the arguments of a DATA message, the number and then the payload
+    static int[] dataArgs(int number, byte[] payload) {
+        int[] args = new int[1 + payload.length];
+        args[0] = number;
+        for (int i = 0; i < payload.length; i++) {
+            args[1 + i] = payload[i] & 0xff;
+        }
+        return args;
+    }
+
+    // the payload of a DATA message from its arguments
+    static byte[] payloadOf(int[] args) {
+        byte[] payload = new byte[args.length - 1];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) args[1 + i];
+        }
+        return payload;
+    }
+
+    static TotalOrderBroadcast forOptions(Map<String, String> options, Owner owner, int localIndex, int numHosts) {
+        String name = options.getOrDefault("total-order", "sequencer");
+        switch (name) {
+            case "isis":
+                return new IsisBroadcast(owner, localIndex, numHosts);
+            case "sequencer":
+                return new Sequencer(owner, localIndex, numHosts);
+            default:
+                System.out.println("Unknown total order: " + name + ", using sequencer");
+                return new Sequencer(owner, localIndex, numHosts);
+        }
+    }
+}
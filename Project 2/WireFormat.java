@@ -0,0 +1,24 @@
+import java.nio.ByteBuffer;
+
+// a wire format turns messages into framed bytes and back, so a reader can split a stream into messages
+interface WireFormat {
+    // writes one complete frame for the message into the buffer, throws BufferOverflowException if it does not fit
+    void encode(Message message, ByteBuffer out);
+
+    // decodes one frame if a complete one is available, otherwise returns null and leaves the buffer untouched
+    Message decode(ByteBuffer in);
+
+    // upper bound on the encoded size of the message, used to size buffers before encoding
+    int maxFrameSize(Message message);
+
+    // selects the wire format from the --wire option, binary unless text is asked for
+    static WireFormat forName(String name, String[] hosts) {
+        if (name.equals("text")) {
+            return new TextFormat(hosts);
+        }
+        if (!name.equals("binary")) {
+            System.out.println("Unknown wire format: " + name + ", using binary");
+        }
+        return new BinaryFormat();
+    }
+}
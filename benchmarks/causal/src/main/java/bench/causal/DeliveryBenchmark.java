@@ -0,0 +1,81 @@
+package bench.causal;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// the causal delivery hot path: the readiness check on its own, and the receive loop draining a backlog of
+// bufferDepth messages that arrived ahead of the one message they all depend on
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeliveryBenchmark {
+
+    @State(Scope.Thread)
+    public static class Ready {
+        @Param({"4", "64", "256"})
+        public int clusterSize;
+
+        Object message;
+        int[] vectorClock;
+
+        @Setup
+        public void setup() {
+            // the next message from sender 1 with no other dependencies, so every entry has to be checked
+            vectorClock = new int[clusterSize];
+            int[] timestamp = new int[clusterSize];
+            timestamp[1] = 1;
+            message = Hooks.message(1, 1, timestamp);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Backlog {
+        @Param({"4", "64", "256"})
+        public int clusterSize;
+
+        @Param({"0", "16", "256"})
+        public int bufferDepth;
+
+        Object[] arrivals; // a causal chain in reverse order, so everything waits for the last arrival
+        Object causalDelivery;
+        int[] delivered;
+
+        @Setup(Level.Trial)
+        public void messages() {
+            // message k comes from sender k % (clusterSize - 1) + 1 and has seen every message before it
+            int[] vectorClock = new int[clusterSize];
+            arrivals = new Object[bufferDepth + 1];
+            for (int k = 0; k <= bufferDepth; k++) {
+                int sender = k % (clusterSize - 1) + 1;
+                vectorClock[sender]++;
+                arrivals[bufferDepth - k] = Hooks.message(sender, vectorClock[sender], vectorClock.clone());
+            }
+        }
+
+        @Setup(Level.Invocation)
+        public void engine() throws Throwable {
+            delivered = new int[1];
+            causalDelivery = (Object) Hooks.CAUSAL_DELIVERY.invokeExact(new int[clusterSize], delivered);
+        }
+    }
+
+    @Benchmark
+    public boolean isReadyForDelivery(Ready ready) throws Throwable {
+        return (boolean) Hooks.IS_READY_FOR_DELIVERY.invokeExact(ready.message, ready.vectorClock);
+    }
+
+    // time to buffer bufferDepth messages and then deliver all bufferDepth + 1 once the missing one arrives
+    @Benchmark
+    public int receiveBacklog(Backlog backlog) throws Throwable {
+        for (Object message : backlog.arrivals) {
+            Hooks.RECEIVE.invokeExact(backlog.causalDelivery, message);
+        }
+        if (backlog.delivered[0] != backlog.arrivals.length) {
+            throw new IllegalStateException("Delivered " + backlog.delivered[0] + " of " + backlog.arrivals.length);
+        }
+        return backlog.delivered[0];
+    }
+}
@@ -0,0 +1,41 @@
+package bench.causal;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+
+// method handles onto CausalHooks in the default package, held in static finals so the JIT inlines them like a
+// direct call
+final class Hooks {
+    static final MethodHandle PARSE_VECTOR_CLOCK = find("parseVectorClock", int[].class, String.class);
+    static final MethodHandle TEXT_FORMAT = find("textFormat", Object.class, String[].class);
+    static final MethodHandle GET_SENDER_INDEX = find("getSenderIndex", int.class, Object.class, String.class);
+    static final MethodHandle MESSAGE = find("message", Object.class, int.class, int.class, int[].class);
+    static final MethodHandle IS_READY_FOR_DELIVERY = find("isReadyForDelivery", boolean.class, Object.class, int[].class);
+    static final MethodHandle CAUSAL_DELIVERY = find("causalDelivery", Object.class, int[].class, int[].class);
+    static final MethodHandle RECEIVE = find("receive", void.class, Object.class, Object.class);
+    static final MethodHandle ENCODE_BINARY = find("encodeBinary", void.class, Object.class, ByteBuffer.class);
+    static final MethodHandle MAX_FRAME_SIZE = find("maxFrameSize", int.class, Object.class);
+    static final MethodHandle DECODE_BINARY = find("decodeBinary", int[].class, ByteBuffer.class);
+
+    private Hooks() {
+    }
+
+    static Object message(int sender, int sequence, int[] vectorClock) {
+        try {
+            return (Object) MESSAGE.invokeExact(sender, sequence, vectorClock);
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    private static MethodHandle find(String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            Class<?> hooks = Class.forName("CausalHooks");
+            return MethodHandles.publicLookup().findStatic(hooks, name, MethodType.methodType(returnType, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
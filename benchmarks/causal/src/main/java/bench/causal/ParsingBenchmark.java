@@ -0,0 +1,57 @@
+package bench.causal;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// cost of getting the sender and vector clock out of a received message, for the text lines and the binary frames
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParsingBenchmark {
+    @Param({"4", "64", "256"})
+    public int clusterSize;
+
+    private String line;
+    private Object textFormat;
+    private ByteBuffer frame;
+
+    @Setup
+    public void setup() throws Throwable {
+        String[] hosts = new String[clusterSize];
+        int[] vectorClock = new int[clusterSize];
+        for (int i = 0; i < clusterSize; i++) {
+            hosts[i] = String.format("dc%03d", i);
+            vectorClock[i] = 1000 + i;
+        }
+        // the sender is the last host so getSenderIndex has to look through all of them
+        line = "Message 42 from " + hosts[clusterSize - 1] + " with vector clock " + Arrays.toString(vectorClock);
+        textFormat = (Object) Hooks.TEXT_FORMAT.invokeExact(hosts);
+
+        Object message = Hooks.message(clusterSize - 1, 42, vectorClock);
+        frame = ByteBuffer.allocate((int) Hooks.MAX_FRAME_SIZE.invokeExact(message));
+        Hooks.ENCODE_BINARY.invokeExact(message, frame);
+        frame.flip();
+    }
+
+    @Benchmark
+    public int[] parseVectorClock() throws Throwable {
+        return (int[]) Hooks.PARSE_VECTOR_CLOCK.invokeExact(line);
+    }
+
+    @Benchmark
+    public int getSenderIndex() throws Throwable {
+        return (int) Hooks.GET_SENDER_INDEX.invokeExact(textFormat, line);
+    }
+
+    @Benchmark
+    public int[] decodeBinary() throws Throwable {
+        frame.rewind();
+        return (int[]) Hooks.DECODE_BINARY.invokeExact(frame);
+    }
+}
@@ -0,0 +1,89 @@
+package bench.mutex;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Ricart-Agrawala macro benchmark: each invocation starts a whole local cluster of Project 2 nodes, one process per
+// node over loopback TCP, and waits until every node has made all of its critical section requests. the score is the
+// time for the whole run, so critical section entries per second is nodes * requests / score, which the benchmark
+// also prints. JVM startup is part of every run, so use enough requests for it not to dominate
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CriticalSectionBenchmark {
+    private static final AtomicInteger RUNS = new AtomicInteger();
+
+    @Param({"4", "8", "16"})
+    public int nodes;
+
+    @Param({"1000"})
+    public int requests;
+
+    private final List<Process> processes = new ArrayList<>();
+
+    @Benchmark
+    public int criticalSectionEntries() throws Exception {
+        // every run gets its own ports so sockets left in TIME_WAIT by the previous run are not in the way
+        int basePort = 40000 + (RUNS.getAndIncrement() * nodes) % 20000;
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classPath = System.getProperty("java.class.path");
+
+        List<CompletableFuture<Integer>> executions = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int id = 0; id < nodes; id++) {
+            Process process = new ProcessBuilder(java, "-cp", classPath, "Node",
+                    "--local=" + nodes, "--id=" + id, "--base-port=" + basePort, "--requests=" + requests,
+                    "--log=off")
+                    .redirectErrorStream(true)
+                    .start();
+            processes.add(process);
+            executions.add(CompletableFuture.supplyAsync(() -> criticalSectionExecutions(process)));
+        }
+
+        int total = 0;
+        for (CompletableFuture<Integer> execution : executions) {
+            total += execution.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%d critical section entries in %d ms, %.0f entries/s%n",
+                total, TimeUnit.NANOSECONDS.toMillis(elapsed), total / (elapsed / 1e9));
+        return total;
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopCluster() {
+        // the nodes keep their transport running after they finish, so they have to be stopped
+        for (Process process : processes) {
+            process.destroyForcibly();
+        }
+        processes.clear();
+    }
+
+    // reads the node's output until it reports how many times it entered the critical section
+    private static int criticalSectionExecutions(Process process) {
+        String prefix = "Critical section executions: ";
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(prefix)) {
+                    return Integer.parseInt(line.substring(prefix.length()).trim());
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        throw new IllegalStateException("Node exited without finishing its requests");
+    }
+}